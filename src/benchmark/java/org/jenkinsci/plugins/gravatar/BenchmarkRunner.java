@@ -0,0 +1,40 @@
+package org.jenkinsci.plugins.gravatar;
+
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the avatar render path with 1, 8 and 64 threads, reporting allocation rates as well.
+ *
+ * Run with {@code mvn test -Dbenchmark}, the results are written to {@code target/jmh-report-<threads>.json}.
+ */
+public class BenchmarkRunner {
+
+    private static final int[] THREADS = {1, 8, 64};
+
+    @Test
+    public void runJmhBenchmarks() throws Exception {
+        for (int threads : THREADS) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .mode(Mode.AverageTime)
+                    .timeUnit(TimeUnit.NANOSECONDS)
+                    .warmupIterations(3)
+                    .measurementIterations(5)
+                    .forks(1)
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .shouldFailOnError(true)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-report-" + threads + ".json");
+            new BenchmarkFinder(getClass()).findBenchmarks(options);
+            new Runner(options.build()).run();
+        }
+    }
+}
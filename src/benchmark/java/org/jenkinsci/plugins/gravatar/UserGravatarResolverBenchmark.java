@@ -0,0 +1,68 @@
+package org.jenkinsci.plugins.gravatar;
+
+import hudson.model.User;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import org.jenkinsci.plugins.gravatar.cache.BenchmarkResolutions;
+import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCacheInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link UserGravatarResolver#findAvatarFor} for users that are all cached, as on a People page, against the
+ * two lookups it took before.
+ */
+@JmhBenchmark
+public class UserGravatarResolverBenchmark {
+
+    private static final int USERS = 1_000;
+
+    public static class JenkinsState extends JmhBenchmarkState {
+
+        User[] users;
+
+        final UserGravatarResolver resolver = new UserGravatarResolver();
+
+        @Override
+        public void setup() throws Exception {
+            var userIds = BenchmarkResolutions.userIds(USERS);
+            users = new User[userIds.length];
+            for (int i = 0; i < userIds.length; i++) {
+                users[i] = User.getById(userIds[i], true);
+            }
+            BenchmarkResolutions.restoreIntoInstance(userIds);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        User next(User[] users) {
+            next = (next + 1) % users.length;
+            return users[next];
+        }
+    }
+
+    @Benchmark
+    public String findAvatarFor(JenkinsState state, Cursor cursor) {
+        return state.resolver.findAvatarFor(cursor.next(state.users), 48, 48);
+    }
+
+    /**
+     * The path {@link UserGravatarResolver#findAvatarFor} took before it resolved the URL with a single lookup, as the
+     * baseline for {@link #findAvatarFor}. It is keyed by the user id as well, so it leaves out the key object the
+     * old path allocated per lookup.
+     */
+    @Benchmark
+    public String hasGravatarCreatorThenUrlCreatorFor(JenkinsState state, Cursor cursor) {
+        var user = cursor.next(state.users);
+        var cache = GravatarImageResolutionCacheInstance.INSTANCE;
+        if (!cache.hasGravatarCreator(user)) {
+            return null;
+        }
+        return cache.urlCreatorFor(user).get().buildUrlForSize(48);
+    }
+}
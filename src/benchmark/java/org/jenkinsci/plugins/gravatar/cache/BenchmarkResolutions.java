@@ -0,0 +1,43 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
+import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+
+/**
+ * Cached resolutions for benchmarks, three out of four users have a Gravatar.
+ */
+public final class BenchmarkResolutions {
+
+    private BenchmarkResolutions() {}
+
+    public static String[] userIds(int users) {
+        var userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "user" + i;
+        }
+        return userIds;
+    }
+
+    static Map<String, GravatarImageResolution> resolutions(String[] userIds) {
+        long now = System.currentTimeMillis();
+        Map<String, GravatarImageResolution> resolutions = new HashMap<>();
+        for (int i = 0; i < userIds.length; i++) {
+            var emailHash = EmailHash.of(userIds[i] + "@example.com");
+            resolutions.put(
+                    userIds[i],
+                    i % 4 == 0
+                            ? GravatarImageResolution.notFound(emailHash, now)
+                            : GravatarImageResolution.found(GravatarUrlCreator.ofHash(emailHash), now));
+        }
+        return resolutions;
+    }
+
+    /**
+     * Puts the resolutions of the users into the cache the plugin renders avatars from.
+     */
+    public static void restoreIntoInstance(String[] userIds) {
+        GravatarImageResolutionCacheInstance.INSTANCE.cache.restore(resolutions(userIds));
+    }
+}
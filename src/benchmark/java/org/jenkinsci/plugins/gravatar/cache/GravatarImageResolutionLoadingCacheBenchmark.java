@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures cache lookups of users that are all cached, without starting Jenkins.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+public class GravatarImageResolutionLoadingCacheBenchmark {
+
+    private static final int USERS = 10_000;
+
+    private String[] userIds;
+
+    private GravatarImageResolutionLoadingCache cache;
+
+    @Setup
+    public void setUp() {
+        userIds = BenchmarkResolutions.userIds(USERS);
+        var loader = new GravatarImageResolutionCacheLoader();
+        cache = new GravatarImageResolutionLoadingCache(
+                GravatarImageResolutionLoadingCache.newCacheBuilder(0, USERS).build(loader), loader);
+        cache.restore(BenchmarkResolutions.resolutions(userIds));
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        String next(String[] userIds) {
+            next = (next + 1) % userIds.length;
+            return userIds[next];
+        }
+    }
+
+    @Benchmark
+    public String avatarUrlFor(Cursor cursor) {
+        return cache.avatarUrlFor(cursor.next(userIds), 48);
+    }
+
+    @Benchmark
+    public boolean isKnown(Cursor cursor) {
+        return cache.isKnown(cursor.next(userIds));
+    }
+}
@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.gravatar.model;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures building avatar URLs, once memoized for the rendered sizes and once from scratch.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+public class GravatarUrlCreatorBenchmark {
+
+    private static final String HASH = "0bc83cb571cd1c50ba6f3e8a78ef1346";
+
+    private static final int[] SIZES = {16, 24, 32, 48};
+
+    private final GravatarUrlCreator creator = GravatarUrlCreator.ofHash(HASH);
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        int nextSize() {
+            next = (next + 1) % SIZES.length;
+            return SIZES[next];
+        }
+    }
+
+    @Benchmark
+    public String memoizedUrl(Cursor cursor) {
+        return creator.buildUrlForSize(cursor.nextSize());
+    }
+
+    @Benchmark
+    public String newUrl(Cursor cursor) {
+        return GravatarUrlCreator.ofHash(HASH).buildUrlForSize(cursor.nextSize());
+    }
+}
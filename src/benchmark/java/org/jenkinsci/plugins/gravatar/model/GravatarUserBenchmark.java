@@ -0,0 +1,28 @@
+package org.jenkinsci.plugins.gravatar.model;
+
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures creating the {@link GravatarUser} a resolution is loaded for, hashing it and hashing its e-mail address.
+ */
+@JmhBenchmark
+@State(Scope.Benchmark)
+public class GravatarUserBenchmark {
+
+    private static final String USER_ID = "eramfelt";
+
+    private static final String EMAIL = " ERamfelt@Gmail.com ";
+
+    @Benchmark
+    public int gravatarUser() {
+        return GravatarUser.gravatarUser(USER_ID).hashCode();
+    }
+
+    @Benchmark
+    public String emailHash() {
+        return EmailHash.of(EMAIL);
+    }
+}
@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.gravatar;
+
+import de.bripkens.gravatar.Gravatar;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.util.FormValidation;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Objects;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import jenkins.security.csp.AvatarContributor;
+import org.jenkinsci.Symbol;
+import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCacheInstance;
+import org.kohsuke.accmod.restrictions.suppressions.SuppressRestrictedWarnings;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Global configuration of how Gravatars are shown.
+ */
+@Extension
+@Symbol("gravatar")
+public class GravatarConfiguration extends GlobalConfiguration {
+
+    private boolean showDefaultImage;
+
+    private String baseUrl;
+
+    private boolean proxyImages;
+
+    public GravatarConfiguration() {
+        load();
+    }
+
+    public static GravatarConfiguration get() {
+        return ExtensionList.lookupSingleton(GravatarConfiguration.class);
+    }
+
+    /**
+     * @return true, if Gravatar's default image is shown for users without a Gravatar, so Gravatar is never asked
+     * whether a user has one; false, if Jenkins' own avatar is shown for them.
+     */
+    public boolean isShowDefaultImage() {
+        return showDefaultImage;
+    }
+
+    @DataBoundSetter
+    public void setShowDefaultImage(boolean showDefaultImage) {
+        boolean changed = this.showDefaultImage != showDefaultImage;
+        this.showDefaultImage = showDefaultImage;
+        save();
+        if (changed) {
+            // users without a Gravatar have to be resolved again
+            GravatarImageResolutionCacheInstance.INSTANCE.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the configured Gravatar-compatible base URL ending with a slash, e.g. of a Libravatar instance or a
+     * mirror, null if the public Gravatar is used.
+     */
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    @DataBoundSetter
+    @SuppressRestrictedWarnings(AvatarContributor.class)
+    public void setBaseUrl(String baseUrl) {
+        var normalized = normalize(baseUrl);
+        boolean changed = !Objects.equals(this.baseUrl, normalized);
+        this.baseUrl = normalized;
+        save();
+        if (changed) {
+            if (normalized != null) {
+                AvatarContributor.allow(normalized);
+            }
+            // users are resolved against the new server, with URLs pointing to it
+            GravatarImageResolutionCacheInstance.INSTANCE.invalidateAll();
+        }
+    }
+
+    /**
+     * @return true, if browsers load avatars from Jenkins, which fetches each of them from Gravatar once a day; false,
+     * if they load them from Gravatar.
+     */
+    public boolean isProxyImages() {
+        return proxyImages;
+    }
+
+    @DataBoundSetter
+    public void setProxyImages(boolean proxyImages) {
+        this.proxyImages = proxyImages;
+        save();
+    }
+
+    private static String normalize(String baseUrl) {
+        var trimmed = Util.fixEmptyAndTrim(baseUrl);
+        if (trimmed == null || trimmed.equals(Gravatar.HTTPS_URL)) {
+            return null;
+        }
+        return trimmed.endsWith("/") ? trimmed : trimmed + "/";
+    }
+
+    public FormValidation doCheckBaseUrl(@QueryParameter String value) {
+        var trimmed = Util.fixEmptyAndTrim(value);
+        if (trimmed == null) {
+            return FormValidation.ok();
+        }
+        try {
+            var scheme = new URI(trimmed).getScheme();
+            if ("http".equals(scheme) || "https".equals(scheme)) {
+                return FormValidation.ok();
+            }
+        } catch (URISyntaxException e) {
+            // reported below
+        }
+        return FormValidation.error("Not an HTTP or HTTPS URL");
+    }
+
+    /**
+     * @return the URL all Gravatar images are served from, the public Gravatar if Jenkins is not running.
+     */
+    public static String baseUrlOrDefault() {
+        var configured = Jenkins.getInstanceOrNull() == null ? null : get().getBaseUrl();
+        return configured == null ? Gravatar.HTTPS_URL : configured;
+    }
+
+    /**
+     * @return whether avatars are served by Jenkins, false if Jenkins is not running.
+     */
+    public static boolean proxiesImages() {
+        return Jenkins.getInstanceOrNull() != null && get().isProxyImages();
+    }
+
+    /**
+     * @return whether Gravatar is asked if a user has a Gravatar, true if Jenkins is not running.
+     */
+    public static boolean verifiesGravatars() {
+        return Jenkins.getInstanceOrNull() == null || !get().isShowDefaultImage();
+    }
+}
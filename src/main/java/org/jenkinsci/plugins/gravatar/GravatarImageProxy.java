@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.gravatar;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.model.RootAction;
+import hudson.model.User;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.gravatar.boundary.GravatarImageDiskCache;
+import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCache;
+import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCacheInstance;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.verb.GET;
+
+/**
+ * Serves the avatars of users from the {@link GravatarImageDiskCache}, if the {@link GravatarConfiguration} says so.
+ *
+ * Only avatars of users that are known to have a Gravatar are served, so Jenkins cannot be made to fetch arbitrary
+ * images.
+ */
+@Extension
+public class GravatarImageProxy implements RootAction {
+
+    private static final Logger LOG = Logger.getLogger(GravatarImageProxy.class.getName());
+
+    static final String URL_NAME = "gravatar-avatar";
+
+    /**
+     * The sizes avatars are served in, see {@link #servedSize(int)}. Jenkins renders them in the smaller ones.
+     */
+    private static final int[] SIZES = {16, 24, 32, 48, 64, 96, 128, 256};
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    /**
+     * @return the URL the avatar of the user is served from, null if the URL of Jenkins is not known.
+     */
+    static String urlFor(User user, int size) {
+        var request = Stapler.getCurrentRequest2();
+        var root = request != null ? request.getContextPath() + "/" : Jenkins.get().getRootUrl();
+        if (root == null) {
+            return null;
+        }
+        return root + URL_NAME + "/?user=" + URLEncoder.encode(user.getId(), StandardCharsets.UTF_8) + "&s="
+                + servedSize(size);
+    }
+
+    /**
+     * Serves any size in the next larger one of a few sizes, the largest one at most, so that each avatar is fetched
+     * and stored in a few sizes only. Browsers scale it down.
+     */
+    @VisibleForTesting
+    static int servedSize(int size) {
+        for (int served : SIZES) {
+            if (size <= served) {
+                return served;
+            }
+        }
+        return SIZES[SIZES.length - 1];
+    }
+
+    /**
+     * Serves the stored avatar of the user. An avatar that is not stored yet is loaded by the browser from Gravatar
+     * while it is fetched in the background, so that rendering a page never waits for Gravatar.
+     */
+    @GET
+    public void doIndex(StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter String user, @QueryParameter int s)
+            throws IOException {
+        var jenkinsUser = user == null ? null : User.getById(user, false);
+        var url = jenkinsUser == null || s <= 0 ? null : cache().avatarUrlFor(jenkinsUser, servedSize(s));
+        if (url == null) {
+            rsp.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+            return;
+        }
+        var fetch = images().image(url);
+        if (!fetch.isDone()) {
+            LOG.fine("Avatar of " + user + " is not stored yet, letting the browser load it from Gravatar");
+            rsp.sendRedirect2(url);
+            return;
+        }
+        if (fetch.isCompletedExceptionally()) {
+            LOG.fine("Could not fetch avatar of " + user + ", letting the browser load it from Gravatar");
+            rsp.sendRedirect2(url);
+            return;
+        }
+        var image = fetch.join();
+        rsp.setHeader("Cache-Control", "private, max-age=86400");
+        rsp.setHeader("ETag", image.etag());
+        if (image.etag().equals(req.getHeader("If-None-Match"))) {
+            rsp.setStatus(HttpURLConnection.HTTP_NOT_MODIFIED);
+            return;
+        }
+        rsp.setContentType(image.contentType());
+        images().copy(image, rsp.getOutputStream());
+    }
+
+    @VisibleForTesting
+    GravatarImageResolutionCache cache() {
+        return GravatarImageResolutionCacheInstance.INSTANCE;
+    }
+
+    @VisibleForTesting
+    GravatarImageDiskCache images() {
+        return GravatarImageDiskCache.get();
+    }
+}
@@ -27,10 +27,10 @@ import com.google.common.annotations.VisibleForTesting;
 import hudson.Extension;
 import hudson.model.User;
 import hudson.tasks.UserAvatarResolver;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCache;
 import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCacheInstance;
-import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
 
 /**
  * UserAvatarResolver that returns Gravatar image URLs for Jenkins users.
@@ -42,21 +42,20 @@ public class UserGravatarResolver extends UserAvatarResolver {
 
     @Override
     public String findAvatarFor(User user, int width, int height) {
-        if (isGravatarUser(user)) {
-            LOG.finest("Resolving gravatar url for user " + user.getId() + " in size " + width + "x" + height);
-            var urlCreator = urlCreatorFor(user);
-            return urlCreator.buildUrlForSize(width);
+        var url = cache().avatarUrlFor(user, width);
+        if (url != null && proxyImages()) {
+            var proxied = GravatarImageProxy.urlFor(user, width);
+            url = proxied != null ? proxied : url;
         }
-        return null; // we cannot contribute to the avatar resolution for this user
+        if (url != null && LOG.isLoggable(Level.FINEST)) {
+            LOG.finest("Resolved gravatar url for user " + user.getId() + " in size " + width + "x" + height);
+        }
+        return url; // null if we cannot contribute to the avatar resolution for this user
     }
 
     @VisibleForTesting
-    protected GravatarUrlCreator urlCreatorFor(User user) {
-        return cache().urlCreatorFor(user).get();
-    }
-
-    boolean isGravatarUser(User user) {
-        return cache().hasGravatarCreator(user);
+    boolean proxyImages() {
+        return GravatarConfiguration.proxiesImages();
     }
 
     @VisibleForTesting
@@ -0,0 +1,125 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Optional;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Stops asking Gravatar while it cannot be reached.
+ *
+ * After a number of consecutive connection failures the circuit opens and probes fail fast. Once the cool-down has
+ * passed, a single probe is let through: if it reaches Gravatar the circuit closes again, otherwise it stays open for
+ * another cool-down.
+ */
+final class GravatarCircuitBreaker {
+
+    private static final Logger LOG = Logger.getLogger(GravatarCircuitBreaker.class.getName());
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Lets a probe through, only the half-open probe gets a permit of its own.
+     */
+    static final class Permit {
+
+        private Permit() {}
+    }
+
+    private static final Optional<Permit> CLOSED_PERMIT = Optional.of(new Permit());
+
+    private final int failureThreshold;
+
+    private final long coolDownNanos;
+
+    private final LongSupplier nanoTime;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAt;
+
+    /**
+     * The permit of the half-open probe, while it is in flight.
+     */
+    private Permit trial;
+
+    GravatarCircuitBreaker(int failureThreshold, long coolDownNanos, LongSupplier nanoTime) {
+        checkArgument(failureThreshold > 0, "At least one failure must be needed to open the circuit.");
+        this.failureThreshold = failureThreshold;
+        this.coolDownNanos = coolDownNanos;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * @return the permit to send a probe with; absent, if it should fail fast.
+     */
+    synchronized Optional<Permit> tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return CLOSED_PERMIT;
+            case OPEN:
+                if (nanoTime.getAsLong() - openedAt < coolDownNanos) {
+                    return Optional.absent();
+                }
+                state = State.HALF_OPEN;
+                trial = new Permit();
+                return Optional.of(trial);
+            default:
+                // the half-open probe is still in flight
+                return Optional.absent();
+        }
+    }
+
+    /**
+     * @return true, if probes fail fast until the cool-down has passed. Unlike {@link #tryAcquire()}, it does not let
+     * the half-open probe through.
+     */
+    synchronized boolean isOpen() {
+        return state == State.OPEN && nanoTime.getAsLong() - openedAt < coolDownNanos;
+    }
+
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("Gravatar is reachable again");
+        }
+        state = State.CLOSED;
+        trial = null;
+        consecutiveFailures = 0;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                LOG.warning("Gravatar could not be reached " + consecutiveFailures
+                        + " times in a row, not asking it again for a while");
+            }
+            state = State.OPEN;
+            trial = null;
+            openedAt = nanoTime.getAsLong();
+        }
+    }
+
+    /**
+     * A probe that was let through was cancelled before it could tell whether Gravatar is reachable. If it was the
+     * half-open probe, the next probe is let through instead.
+     */
+    synchronized void onCancelled(Permit permit) {
+        if (state == State.HALF_OPEN && permit == trial) {
+            // the cool-down has passed already
+            state = State.OPEN;
+            trial = null;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
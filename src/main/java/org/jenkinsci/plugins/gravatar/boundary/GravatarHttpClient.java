@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.gravatar.GravatarConfiguration;
+import org.jenkinsci.plugins.gravatar.factory.GravatarFactory;
+
+/**
+ * Holds the {@link HttpClient} shared by all Gravatar probes.
+ *
+ * The client keeps its connections alive between probes, so DNS lookups and TLS handshakes are paid once and
+ * concurrent probes are multiplexed over HTTP/2. It is only rebuilt when the Jenkins proxy configuration changes.
+ */
+public final class GravatarHttpClient {
+
+    private static final Logger LOG = Logger.getLogger(GravatarHttpClient.class.getName());
+
+    private static HttpClient client;
+
+    private static ProxyConfiguration proxyOfClient;
+
+    private GravatarHttpClient() {}
+
+    /**
+     * @return the shared client, built for the current proxy configuration.
+     */
+    public static synchronized HttpClient get() {
+        var proxy = currentProxy();
+        if (client == null || proxy != proxyOfClient) {
+            LOG.fine("Building shared HTTP client for Gravatar probes");
+            client = build();
+            proxyOfClient = proxy;
+        }
+        return client;
+    }
+
+    /**
+     * Drops the shared client, the next call to {@link #get()} builds a new one.
+     */
+    @VisibleForTesting
+    static synchronized void invalidate() {
+        client = null;
+        proxyOfClient = null;
+    }
+
+    private static HttpClient build() {
+        return ProxyConfiguration.newHttpClientBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    private static ProxyConfiguration currentProxy() {
+        var jenkins = Jenkins.getInstanceOrNull();
+        return jenkins == null ? null : jenkins.proxy;
+    }
+
+    /**
+     * Opens the connection to Gravatar in the background, so the first probe after a restart does not pay for it.
+     * Nothing is opened if Jenkins neither asks Gravatar about users nor fetches their avatars.
+     */
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void warmUp() {
+        if (!GravatarConfiguration.verifiesGravatars() && !GravatarConfiguration.proxiesImages()) {
+            return;
+        }
+        var request = ProxyConfiguration.newHttpRequestBuilder(URI.create(new GravatarFactory().baseUrl()))
+                .timeout(Duration.ofSeconds(5))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        get().sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            if (e != null) {
+                LOG.fine("Could not warm up the connection to Gravatar, " + e);
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the shared client whenever the proxy configuration is saved.
+     */
+    @Extension
+    public static class ProxyConfigurationListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof ProxyConfiguration) {
+                LOG.fine("Proxy configuration changed, dropping shared HTTP client for Gravatar probes");
+                invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Keeps avatar images in {@code JENKINS_HOME}, so that the controller fetches each of them from Gravatar only once a
+ * day, no matter how many browsers show it.
+ *
+ * Each image is stored in a file named after the digest of its Gravatar URL, so users sharing an e-mail address share
+ * the file, and concurrent requests for an image that is not stored yet share a single fetch.
+ */
+public final class GravatarImageDiskCache {
+
+    private static final Logger LOG = Logger.getLogger(GravatarImageDiskCache.class.getName());
+
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Images are fetched again when they are asked for after {@link #MAX_AGE_MILLIS}, so an image that was not
+     * fetched for this long was not asked for by any browser in between.
+     */
+    static final long EVICT_AFTER_MILLIS = 7 * MAX_AGE_MILLIS;
+
+    /**
+     * Avatars are served in 256 pixels at most, an image larger than this is not stored.
+     */
+    static final int MAX_IMAGE_BYTES = 1 << 20;
+
+    private final Path directory;
+
+    private final Map<String, CompletableFuture<Image>> fetching = new ConcurrentHashMap<>();
+
+    @VisibleForTesting
+    GravatarImageDiskCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static GravatarImageDiskCache get() {
+        return Holder.INSTANCE;
+    }
+
+    private static final class Holder {
+
+        static final GravatarImageDiskCache INSTANCE =
+                new GravatarImageDiskCache(new File(Jenkins.get().getRootDir(), "gravatar-images").toPath());
+    }
+
+    /**
+     * A stored image.
+     *
+     * @param fetched when it was fetched from Gravatar, in milliseconds since the epoch
+     */
+    public record Image(Path file, String contentType, long fetched) {
+
+        /**
+         * @return an {@code ETag} that changes whenever the image is fetched again.
+         */
+        public String etag() {
+            return "\"" + Long.toHexString(fetched) + "\"";
+        }
+    }
+
+    /**
+     * @param url the Gravatar URL of the image
+     * @return a future that completes with the stored image, fetching it if it is not stored or more than a day old.
+     * A stored image is still used if it cannot be fetched again.
+     */
+    public CompletableFuture<Image> image(String url) {
+        var file = directory.resolve(DigestUtils.md5Hex(url));
+        var stored = read(file);
+        if (stored != null && now() - stored.fetched() < MAX_AGE_MILLIS) {
+            return CompletableFuture.completedFuture(stored);
+        }
+        var fetch = new CompletableFuture<Image>();
+        var running = fetching.putIfAbsent(url, fetch);
+        if (running != null) {
+            return running;
+        }
+        fetch(url, file).whenComplete((image, e) -> {
+            fetching.remove(url, fetch);
+            if (e == null) {
+                fetch.complete(image);
+            } else if (stored != null) {
+                LOG.fine("Serving stored avatar since it could not be fetched again, " + e);
+                fetch.complete(stored);
+            } else {
+                fetch.completeExceptionally(e);
+            }
+        });
+        return fetch;
+    }
+
+    /**
+     * Writes the bytes of the image.
+     */
+    public void copy(Image image, OutputStream out) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(image.file())))) {
+            // skip the content type and fetch time
+            in.readUTF();
+            in.readLong();
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Deletes the images that were not asked for in a while, e.g. of users that were deleted or changed their e-mail
+     * address.
+     */
+    public void evictStale() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        long oldest = now() - EVICT_AFTER_MILLIS;
+        int evicted = 0;
+        try (var files = Files.newDirectoryStream(directory)) {
+            for (var file : files) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < oldest) {
+                        Files.deleteIfExists(file);
+                        evicted++;
+                    }
+                } catch (IOException e) {
+                    LOG.fine("Could not evict stored avatar " + file + ", " + e);
+                }
+            }
+        }
+        LOG.fine("Evicted " + evicted + " stored avatars");
+    }
+
+    private CompletableFuture<Image> fetch(String url, Path file) {
+        var request = ProxyConfiguration.newHttpRequestBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(10))
+                .GET()
+                .build();
+        return client().sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    byte[] bytes;
+                    String contentType;
+                    try (var body = response.body()) {
+                        if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+                            throw new IllegalStateException("Gravatar responded with " + response.statusCode());
+                        }
+                        contentType = response.headers().firstValue("Content-Type").orElse("");
+                        if (!contentType.toLowerCase(Locale.ROOT).startsWith("image/")) {
+                            throw new IllegalStateException("Gravatar responded with '" + contentType + "'");
+                        }
+                        // the rest of a larger body is not read
+                        bytes = body.readNBytes(MAX_IMAGE_BYTES + 1);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not fetch avatar " + url, e);
+                    }
+                    if (bytes.length > MAX_IMAGE_BYTES) {
+                        throw new IllegalStateException(
+                                "Avatar " + url + " is larger than " + MAX_IMAGE_BYTES + " bytes");
+                    }
+                    try {
+                        return write(file, contentType, bytes);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Could not store avatar " + file, e);
+                    }
+                });
+    }
+
+    private Image write(Path file, String contentType, byte[] bytes) throws IOException {
+        Files.createDirectories(directory);
+        long fetched = now();
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeUTF(contentType);
+            out.writeLong(fetched);
+            out.write(bytes);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new Image(file, contentType, fetched);
+    }
+
+    private Image read(Path file) {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return new Image(file, in.readUTF(), in.readLong());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.fine("Could not read stored avatar " + file + ", " + e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    HttpClient client() {
+        return GravatarHttpClient.get();
+    }
+
+    /**
+     * Evicts the stale images once a day.
+     */
+    @Extension
+    public static class PeriodicEviction extends AsyncPeriodicWork {
+
+        public PeriodicEviction() {
+            super("Gravatar image eviction");
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException {
+            get().evictStale();
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return PeriodicWork.DAY;
+        }
+    }
+}
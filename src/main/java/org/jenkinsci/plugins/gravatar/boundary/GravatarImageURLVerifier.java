@@ -28,7 +28,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.annotations.VisibleForTesting;
 import de.bripkens.gravatar.Gravatar;
 import hudson.ProxyConfiguration;
-import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -36,8 +35,14 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.gravatar.factory.GravatarFactory;
+import org.jenkinsci.plugins.gravatar.metrics.GravatarMetrics;
 
 /**
  * Class that verifies that a Gravatar exists for an email.
@@ -46,6 +51,22 @@ public class GravatarImageURLVerifier {
 
     private static final Logger LOG = Logger.getLogger(GravatarImageURLVerifier.class.getName());
 
+    private static final int MAX_IN_FLIGHT_PROBES =
+            SystemProperties.getInteger(GravatarImageURLVerifier.class.getName() + ".maxInFlightProbes", 64);
+
+    private static final InFlightProbeLimiter LIMITER = new InFlightProbeLimiter(MAX_IN_FLIGHT_PROBES);
+
+    private static final SingleFlight<String, GravatarImageVerification> FLIGHTS = new SingleFlight<>();
+
+    private static final int CIRCUIT_BREAKER_FAILURES =
+            SystemProperties.getInteger(GravatarImageURLVerifier.class.getName() + ".circuitBreakerFailures", 5);
+
+    private static final int CIRCUIT_BREAKER_COOL_DOWN_SECONDS = SystemProperties.getInteger(
+            GravatarImageURLVerifier.class.getName() + ".circuitBreakerCoolDownSeconds", 60);
+
+    private static final GravatarCircuitBreaker CIRCUIT_BREAKER = new GravatarCircuitBreaker(
+            CIRCUIT_BREAKER_FAILURES, TimeUnit.SECONDS.toNanos(CIRCUIT_BREAKER_COOL_DOWN_SECONDS), System::nanoTime);
+
     /**
      * Verifies if the email has an Gravatar
      *
@@ -54,37 +75,184 @@ public class GravatarImageURLVerifier {
      */
     public boolean verify(String email) {
         checkNotNull(email);
-        String imageURL = gravatar().getUrl(email);
-
-        boolean gravatarExistsForEmail = false;
         try {
-            URI url = new URI(imageURL);
-            HttpClient client = ProxyConfiguration.newHttpClientBuilder()
-                    .followRedirects(HttpClient.Redirect.NORMAL)
-                    .connectTimeout(Duration.ofSeconds(5))
-                    .build();
-            HttpRequest request = ProxyConfiguration.newHttpRequestBuilder(url)
-                    .timeout(Duration.ofSeconds(5))
-                    .method("HEAD", HttpRequest.BodyPublishers.noBody())
-                    .build();
+            return verifyAsync(email).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.fine("Interrupted while verifying the Gravatar for " + email);
+        } catch (ExecutionException e) {
+            LOG.fine("Could not verify the Gravatar for " + email + ", " + e.getCause());
+        }
+        return false;
+    }
+
+    /**
+     * Verifies if the email has an Gravatar without blocking the calling thread.
+     *
+     * At most {@code maxInFlightProbes} probes are sent at the same time, further probes are queued until a running
+     * one completes.
+     *
+     * @param email email address
+     * @return a future that completes with true, if there is a Gravatar for the email; false, otherwise.
+     */
+    public CompletableFuture<Boolean> verifyAsync(String email) {
+        return verifyAsync(email, null).thenApply(GravatarImageVerification::exists);
+    }
 
-            HttpResponse<?> resp = client.send(request, HttpResponse.BodyHandlers.discarding());
+    /**
+     * Verifies if the email has an Gravatar without blocking the calling thread, conditionally if it has been found
+     * before.
+     *
+     * If the previous verification found a Gravatar, its {@code ETag} and {@code Last-Modified} are sent along as
+     * {@code If-None-Match} and {@code If-Modified-Since}, so an unchanged image is confirmed with a 304.
+     *
+     * After {@code circuitBreakerFailures} consecutive connection failures, verifications fail right away without
+     * asking Gravatar for {@code circuitBreakerCoolDownSeconds}.
+     *
+     * Concurrent verifications of the same email address share one probe, e.g. while a page showing many users
+     * sharing an address is rendered for the first time. The probe is cancelled once all of them are cancelled.
+     *
+     * @param email email address
+     * @param previous the previous verification of the same email address, may be null
+     * @return a future that completes with the verification, it does not complete exceptionally.
+     */
+    public CompletableFuture<GravatarImageVerification> verifyAsync(String email, GravatarImageVerification previous) {
+        return verifyAsync(email, previous, ProbePriority.INTERACTIVE);
+    }
 
-            int gravatarResponseCode = resp.statusCode();
-            gravatarExistsForEmail = responseCodeIsOK(gravatarResponseCode);
+    /**
+     * Verifies like {@link #verifyAsync(String, GravatarImageVerification)}, a probe waiting for a free slot is sent
+     * before the waiting probes of a lower priority.
+     */
+    public CompletableFuture<GravatarImageVerification> verifyAsync(
+            String email, GravatarImageVerification previous, ProbePriority priority) {
+        checkNotNull(email);
+        // the URL is made of the digest of the address, so it is the same for all spellings of it
+        String imageURL = factory().rebase(gravatar().getUrl(email));
+        // a probe that is still waiting is raised to the priority of the callers joining it
+        Consumer<CompletableFuture<GravatarImageVerification>> raise =
+                running -> limiter().prioritize(running, priority);
+        return flights().submit(imageURL, () -> probe(email, imageURL, previous, priority), raise);
+    }
 
-            LOG.finer("Resolved gravatar for " + email + ". Found: " + gravatarExistsForEmail);
+    private CompletableFuture<GravatarImageVerification> probe(
+            String email, String imageURL, GravatarImageVerification previous, ProbePriority priority) {
+        HttpRequest request;
+        try {
+            var builder = ProxyConfiguration.newHttpRequestBuilder(new URI(imageURL))
+                    .timeout(Duration.ofSeconds(5))
+                    .method("HEAD", HttpRequest.BodyPublishers.noBody());
+            if (previous != null && previous.exists()) {
+                if (previous.etag().isPresent()) {
+                    builder.header("If-None-Match", previous.etag().get());
+                }
+                if (previous.lastModified().isPresent()) {
+                    builder.header("If-Modified-Since", previous.lastModified().get());
+                }
+            }
+            request = builder.build();
         } catch (URISyntaxException e) {
             LOG.warning("Gravatar URL is malformed, " + imageURL);
-        } catch (IOException | InterruptedException e) {
-            LOG.fine("Could not connect to the Gravatar URL, " + e);
+            return CompletableFuture.completedFuture(GravatarImageVerification.notFound());
+        }
+
+        if (circuitBreaker().isOpen()) {
+            // does not wait for a free slot just to be short-circuited
+            return shortCircuited(email);
+        }
+        long start = System.nanoTime();
+        // the circuit breaker is asked again once the probe is about to be sent, so probes queued before Gravatar
+        // became unreachable are not sent either
+        return limiter().submit(priority, () -> send(email, request, previous, start));
+    }
+
+    private CompletableFuture<GravatarImageVerification> shortCircuited(String email) {
+        LOG.finer("Not asking Gravatar for " + email + " while it cannot be reached");
+        metrics().shortCircuited();
+        return CompletableFuture.completedFuture(GravatarImageVerification.failed());
+    }
+
+    private CompletableFuture<GravatarImageVerification> send(
+            String email, HttpRequest request, GravatarImageVerification previous, long start) {
+        var circuitBreaker = circuitBreaker();
+        var permit = circuitBreaker.tryAcquire();
+        if (!permit.isPresent()) {
+            return shortCircuited(email);
         }
-        return gravatarExistsForEmail;
+        var sent = client().sendAsync(request, HttpResponse.BodyHandlers.discarding());
+        var result = sent.handle((resp, e) -> {
+            GravatarImageVerification verification;
+            if (e != null) {
+                LOG.fine("Could not connect to the Gravatar URL, " + e);
+                circuitBreaker.onFailure();
+                verification = GravatarImageVerification.failed();
+            } else {
+                circuitBreaker.onSuccess();
+                verification = verificationOf(resp, previous);
+                LOG.finer("Resolved gravatar for " + email + ". Found: " + verification.exists());
+            }
+            // includes the time spent waiting for a free slot in the limiter
+            metrics().probed(verification.exists(), verification.isFailed(), System.nanoTime() - start);
+            return verification;
+        });
+        result.whenComplete((verification, e) -> {
+            if (result.isCancelled()) {
+                sent.cancel(true);
+                circuitBreaker.onCancelled(permit.get());
+            }
+        });
+        return result;
+    }
+
+    private GravatarImageVerification verificationOf(HttpResponse<?> resp, GravatarImageVerification previous) {
+        int gravatarResponseCode = resp.statusCode();
+        if (!responseCodeIsOK(gravatarResponseCode)) {
+            return GravatarImageVerification.notFound();
+        }
+        var etag = resp.headers().firstValue("ETag");
+        var lastModified = resp.headers().firstValue("Last-Modified");
+        if (gravatarResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+            // a 304 may leave out the validators, the ones that were sent are still valid then
+            return GravatarImageVerification.found(
+                    etag.orElse(previous.etag().orNull()),
+                    lastModified.orElse(previous.lastModified().orNull()));
+        }
+        return GravatarImageVerification.found(etag.orElse(null), lastModified.orElse(null));
+    }
+
+    @VisibleForTesting
+    SingleFlight<String, GravatarImageVerification> flights() {
+        return FLIGHTS;
+    }
+
+    @VisibleForTesting
+    InFlightProbeLimiter limiter() {
+        return LIMITER;
+    }
+
+    @VisibleForTesting
+    GravatarCircuitBreaker circuitBreaker() {
+        return CIRCUIT_BREAKER;
+    }
+
+    @VisibleForTesting
+    GravatarMetrics metrics() {
+        return GravatarMetrics.get();
+    }
+
+    @VisibleForTesting
+    protected HttpClient client() {
+        return GravatarHttpClient.get();
     }
 
     @VisibleForTesting
     protected Gravatar gravatar() {
-        return new GravatarFactory().verifyingGravatar();
+        return factory().verifyingGravatar();
+    }
+
+    @VisibleForTesting
+    GravatarFactory factory() {
+        return new GravatarFactory();
     }
 
     private boolean responseCodeIsOK(int gravatarResponseCode) {
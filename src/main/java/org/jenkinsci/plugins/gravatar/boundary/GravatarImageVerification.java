@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
+/**
+ * The outcome of asking Gravatar for an image, including the validators needed to ask again conditionally.
+ */
+public final class GravatarImageVerification {
+
+    private static final GravatarImageVerification NOT_FOUND = new GravatarImageVerification(false, false, null, null);
+
+    private static final GravatarImageVerification FAILED = new GravatarImageVerification(false, true, null, null);
+
+    private final boolean exists;
+
+    private final boolean failed;
+
+    private final String etag;
+
+    private final String lastModified;
+
+    private GravatarImageVerification(boolean exists, boolean failed, String etag, String lastModified) {
+        this.exists = exists;
+        this.failed = failed;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param etag the {@code ETag} Gravatar sent along with the image, may be null
+     * @param lastModified the {@code Last-Modified} Gravatar sent along with the image, may be null
+     */
+    public static GravatarImageVerification found(String etag, String lastModified) {
+        return new GravatarImageVerification(true, false, etag, lastModified);
+    }
+
+    public static GravatarImageVerification notFound() {
+        return NOT_FOUND;
+    }
+
+    /**
+     * @return the outcome when Gravatar could not be asked at all, e.g. because it is unreachable.
+     */
+    public static GravatarImageVerification failed() {
+        return FAILED;
+    }
+
+    public boolean exists() {
+        return exists;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public Optional<String> etag() {
+        return Optional.fromNullable(etag);
+    }
+
+    public Optional<String> lastModified() {
+        return Optional.fromNullable(lastModified);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(exists, failed, etag, lastModified);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final var other = (GravatarImageVerification) obj;
+        return exists == other.exists
+                && failed == other.failed
+                && Objects.equal(etag, other.etag)
+                && Objects.equal(lastModified, other.lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "GravatarImageVerification{exists=%s, failed=%s, etag=%s, lastModified=%s}",
+                exists, failed, etag, lastModified);
+    }
+}
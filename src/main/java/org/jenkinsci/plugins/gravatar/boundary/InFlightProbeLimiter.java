@@ -0,0 +1,178 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Caps the number of asynchronous probes that are in flight at the same time.
+ *
+ * Probes beyond the cap are queued instead of blocking the submitting thread, and are started as soon as a running
+ * probe completes, the ones of the highest {@link ProbePriority} first. A waiting probe can be raised to a higher
+ * priority. Cancelling a queued probe drops it, cancelling a sent one cancels its HTTP exchange.
+ */
+final class InFlightProbeLimiter {
+
+    private final Semaphore permits;
+
+    /**
+     * The waiting probes by the ordinal of their {@link ProbePriority}.
+     */
+    private final List<Queue<Runnable>> waiting = new ArrayList<>();
+
+    /**
+     * How often {@link #drain()} was called since the thread draining started, 0 if none is draining.
+     */
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    InFlightProbeLimiter(int maxInFlight) {
+        checkArgument(maxInFlight > 0, "At least one probe must be allowed in flight.");
+        this.permits = new Semaphore(maxInFlight);
+        for (int i = 0; i < ProbePriority.values().length; i++) {
+            waiting.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> probe) {
+        return submit(ProbePriority.INTERACTIVE, probe);
+    }
+
+    <T> CompletableFuture<T> submit(ProbePriority priority, Supplier<CompletableFuture<T>> probe) {
+        var queued = new Probe<>(priority, probe);
+        waiting.get(priority.ordinal()).add(queued::dispatch);
+        drain();
+        return queued;
+    }
+
+    /**
+     * Sends a waiting probe before the waiting ones of a lower priority than the given one, e.g. since someone is
+     * looking at a page showing the user now. Does nothing if the probe was sent already.
+     *
+     * @param probe a probe returned by {@link #submit(ProbePriority, Supplier)}
+     */
+    void prioritize(CompletableFuture<?> probe, ProbePriority priority) {
+        if (probe instanceof Probe<?> queued && queued.raiseTo(priority)) {
+            drain();
+        }
+    }
+
+    int available() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Starts waiting probes while permits are available. Probes completing right away, e.g. since Gravatar cannot be
+     * reached, drain again from within; such a call only makes the thread that is draining already go on, so the
+     * stack does not grow with the number of waiting probes.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int requests = 1;
+        do {
+            while (isWaiting() && permits.tryAcquire()) {
+                var next = poll();
+                if (next == null) {
+                    permits.release();
+                    break;
+                }
+                next.run();
+            }
+            requests = drainRequests.addAndGet(-requests);
+        } while (requests != 0);
+    }
+
+    private boolean isWaiting() {
+        for (var queue : waiting) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Runnable poll() {
+        for (var queue : waiting) {
+            var next = queue.poll();
+            if (next != null) {
+                return next;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A probe and its result. A probe that is raised to a higher priority is queued once more, it is dispatched from
+     * whichever queue it is taken from first.
+     */
+    private final class Probe<T> extends CompletableFuture<T> {
+
+        private final Supplier<CompletableFuture<T>> probe;
+
+        private ProbePriority priority;
+
+        private boolean dispatched;
+
+        Probe(ProbePriority priority, Supplier<CompletableFuture<T>> probe) {
+            this.priority = priority;
+            this.probe = probe;
+        }
+
+        synchronized boolean raiseTo(ProbePriority priority) {
+            if (dispatched || priority.compareTo(this.priority) >= 0) {
+                return false;
+            }
+            this.priority = priority;
+            waiting.get(priority.ordinal()).add(this::dispatch);
+            return true;
+        }
+
+        private synchronized boolean take() {
+            if (dispatched) {
+                return false;
+            }
+            dispatched = true;
+            return true;
+        }
+
+        private void dispatch() {
+            if (!take() || isDone()) {
+                // taken from the queue of a higher priority before, or cancelled while waiting: it is not sent
+                permits.release();
+                return;
+            }
+            CompletableFuture<T> started;
+            try {
+                started = probe.get();
+            } catch (RuntimeException e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            var sent = started;
+            whenComplete((value, e) -> {
+                if (isCancelled()) {
+                    sent.cancel(true);
+                }
+            });
+            started.whenComplete((value, e) -> {
+                try {
+                    if (e != null) {
+                        completeExceptionally(e);
+                    } else {
+                        complete(value);
+                    }
+                } finally {
+                    permits.release();
+                    drain();
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+/**
+ * How urgently Gravatar has to be asked, from the highest priority to the lowest. Waiting probes of a higher priority
+ * are sent first.
+ */
+public enum ProbePriority {
+    /**
+     * Someone is looking at a page showing the user right now.
+     */
+    INTERACTIVE,
+    /**
+     * The periodic lookup or a refresh of a user that is already shown.
+     */
+    BACKGROUND
+}
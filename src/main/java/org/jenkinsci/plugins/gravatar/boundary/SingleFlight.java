@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers asking for the same key share a single asynchronous computation and its result.
+ *
+ * Each caller gets a future of its own, cancelling it does not affect the others. The computation is cancelled once
+ * all of its callers cancelled theirs.
+ */
+final class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    CompletableFuture<V> submit(K key, Supplier<CompletableFuture<V>> computation) {
+        return submit(key, computation, running -> {});
+    }
+
+    /**
+     * @param joined called with the running computation if the caller joins the one of another caller, e.g. to raise
+     * its priority
+     */
+    CompletableFuture<V> submit(
+            K key, Supplier<CompletableFuture<V>> computation, Consumer<CompletableFuture<V>> joined) {
+        while (true) {
+            var created = new Flight<V>();
+            var flight = flights.putIfAbsent(key, created);
+            if (flight == null) {
+                flight = created;
+                start(key, flight, computation);
+            }
+            if (flight.join()) {
+                if (flight != created) {
+                    // once it is started, in case the caller that created the flight did not get to it yet
+                    flight.running.thenAccept(joined);
+                }
+                return waitFor(key, flight);
+            }
+            // all callers of the flight cancelled it just now, it is on its way out
+            flights.remove(key, flight);
+        }
+    }
+
+    int inFlight() {
+        return flights.size();
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> computation) {
+        CompletableFuture<V> started;
+        try {
+            started = computation.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        var running = started;
+        flight.running.complete(running);
+        flight.result.whenComplete((value, e) -> {
+            flights.remove(key, flight);
+            if (flight.result.isCancelled()) {
+                running.cancel(true);
+            }
+        });
+        started.whenComplete((value, e) -> {
+            if (e != null) {
+                flight.result.completeExceptionally(e);
+            } else {
+                flight.result.complete(value);
+            }
+        });
+    }
+
+    private CompletableFuture<V> waitFor(K key, Flight<V> flight) {
+        var mine = flight.result.copy();
+        mine.whenComplete((value, e) -> {
+            if (mine.isCancelled() && flight.leave()) {
+                flight.result.cancel(true);
+            }
+        });
+        return mine;
+    }
+
+    private static final class Flight<V> {
+
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        final CompletableFuture<CompletableFuture<V>> running = new CompletableFuture<>();
+
+        /**
+         * How many callers wait for the result, -1 once all of them cancelled.
+         */
+        private int callers;
+
+        synchronized boolean join() {
+            if (callers < 0) {
+                return false;
+            }
+            callers++;
+            return true;
+        }
+
+        /**
+         * @return true, if the last caller left.
+         */
+        synchronized boolean leave() {
+            if (--callers == 0) {
+                callers = -1;
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.gravatar.boundary.GravatarImageVerification;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
+import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+
+/**
+ * The cached result of checking whether a user has a Gravatar.
+ *
+ * Users without a Gravatar are checked again with an exponential backoff: 30 minutes after the first miss, then
+ * 2 hours, 8 hours and at most once a day. Found Gravatars are revalidated once a day with a conditional request.
+ *
+ * There is one resolution per user, so it is kept compact: the e-mail hash is held as its 16 byte digest and whether
+ * the user has an e-mail address is packed with the misses into a single int. Only found Gravatars keep their URL
+ * creator and validators.
+ */
+final class GravatarImageResolution {
+
+    static final long FIRST_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int BACKOFF_FACTOR = 4;
+
+    private static final long REVALIDATION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int HAS_EMAIL = 1;
+
+    private static final int MISSES_SHIFT = 8;
+
+    /**
+     * The digest of the e-mail address, see {@link EmailHash#high} and {@link EmailHash#low}. 0 if there is none.
+     */
+    private final long emailHashHigh;
+
+    private final long emailHashLow;
+
+    private final long probed;
+
+    /**
+     * {@link #HAS_EMAIL} and the misses shifted by {@link #MISSES_SHIFT}.
+     */
+    private final int state;
+
+    /**
+     * Null if no Gravatar was found.
+     */
+    private final Found found;
+
+    private GravatarImageResolution(String emailHash, long probed, int misses, Found found) {
+        if (emailHash != null) {
+            this.emailHashHigh = EmailHash.high(emailHash);
+            this.emailHashLow = EmailHash.low(emailHash);
+        } else {
+            this.emailHashHigh = 0;
+            this.emailHashLow = 0;
+        }
+        this.probed = probed;
+        this.state = (emailHash != null ? HAS_EMAIL : 0) | misses << MISSES_SHIFT;
+        this.found = found;
+    }
+
+    /**
+     * The parts of a found Gravatar.
+     */
+    private record Found(GravatarUrlCreator urlCreator, String etag, String lastModified) {}
+
+    static GravatarImageResolution found(GravatarUrlCreator urlCreator, long probed) {
+        return found(urlCreator, probed, null, null);
+    }
+
+    /**
+     * @param etag the {@code ETag} of the image, may be null
+     * @param lastModified the {@code Last-Modified} of the image, may be null
+     */
+    static GravatarImageResolution found(GravatarUrlCreator urlCreator, long probed, String etag, String lastModified) {
+        checkNotNull(urlCreator);
+        return new GravatarImageResolution(
+                urlCreator.emailHash(), probed, 0, new Found(urlCreator, etag, lastModified));
+    }
+
+    static GravatarImageResolution notFound(String emailHash, long probed) {
+        return notFound(emailHash, probed, 1);
+    }
+
+    static GravatarImageResolution notFound(String emailHash, long probed, int misses) {
+        checkNotNull(emailHash);
+        checkArgument(misses > 0, "A user without a Gravatar has been missed at least once.");
+        return new GravatarImageResolution(emailHash, probed, misses, null);
+    }
+
+    /**
+     * @param previous the resolution this one replaces, if any
+     * @return a miss that continues the backoff of the previous miss for the same e-mail address.
+     */
+    static GravatarImageResolution notFound(String emailHash, long probed, GravatarImageResolution previous) {
+        boolean missedBefore = previous != null && !previous.isFound() && previous.hasEmailHash(emailHash);
+        return notFound(emailHash, probed, missedBefore ? previous.misses() + 1 : 1);
+    }
+
+    static GravatarImageResolution withoutEmail(long probed) {
+        return new GravatarImageResolution(null, probed, 0, null);
+    }
+
+    private boolean hasEmailHash(String emailHash) {
+        return (state & HAS_EMAIL) != 0
+                && EmailHash.high(emailHash) == emailHashHigh
+                && EmailHash.low(emailHash) == emailHashLow;
+    }
+
+    /**
+     * @return the {@link org.jenkinsci.plugins.gravatar.model.EmailHash} that was checked, absent if the user had no
+     * e-mail address.
+     */
+    Optional<String> emailHash() {
+        if ((state & HAS_EMAIL) == 0) {
+            return Optional.absent();
+        }
+        return Optional.of(EmailHash.of(emailHashHigh, emailHashLow));
+    }
+
+    Optional<GravatarUrlCreator> urlCreator() {
+        return found != null ? Optional.of(found.urlCreator()) : Optional.absent();
+    }
+
+    boolean isFound() {
+        return found != null;
+    }
+
+    /**
+     * @return when Gravatar was asked for this user, in milliseconds since the epoch.
+     */
+    long probed() {
+        return probed;
+    }
+
+    /**
+     * @return how often in a row Gravatar has been asked for this e-mail address without finding one.
+     */
+    int misses() {
+        return state >>> MISSES_SHIFT;
+    }
+
+    Optional<String> etag() {
+        return Optional.fromNullable(found != null ? found.etag() : null);
+    }
+
+    Optional<String> lastModified() {
+        return Optional.fromNullable(found != null ? found.lastModified() : null);
+    }
+
+    /**
+     * @return the found Gravatar as a previous verification to revalidate against, absent if none was found.
+     */
+    Optional<GravatarImageVerification> verification() {
+        if (!isFound()) {
+            return Optional.absent();
+        }
+        return Optional.of(GravatarImageVerification.found(found.etag(), found.lastModified()));
+    }
+
+    /**
+     * @return when Gravatar should be asked again for this user, in milliseconds since the epoch.
+     */
+    long nextProbe() {
+        if (isFound()) {
+            return probed + REVALIDATION_MILLIS;
+        }
+        long backoff = FIRST_BACKOFF_MILLIS;
+        for (int i = 1; i < misses() && backoff < MAX_BACKOFF_MILLIS; i++) {
+            backoff *= BACKOFF_FACTOR;
+        }
+        return probed + Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @return true, if it is time to ask Gravatar again; false, otherwise.
+     */
+    boolean isDue(long now) {
+        return now >= nextProbe();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GravatarImageResolution{found=%s, probed=%d, misses=%d}", isFound(), probed, misses());
+    }
+}
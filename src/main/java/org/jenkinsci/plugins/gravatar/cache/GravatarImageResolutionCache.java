@@ -2,12 +2,31 @@ package org.jenkinsci.plugins.gravatar.cache;
 
 import com.google.common.base.Optional;
 import hudson.model.User;
+import java.util.Collection;
+import java.util.Map;
 import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
 
 public interface GravatarImageResolutionCache {
 
     Optional<GravatarUrlCreator> urlCreatorFor(User user);
 
+    /**
+     * Resolves many users at once, e.g. all users shown on a page.
+     *
+     * @param users the users
+     * @return the URL creator of each user, absent if it is not known to have a Gravatar.
+     */
+    Map<User, Optional<GravatarUrlCreator>> urlCreatorsFor(Collection<User> users);
+
+    /**
+     * Resolves the avatar URL of a user with a single cache lookup, without loading unknown users.
+     *
+     * @param user the user
+     * @param size the size of the image in pixels
+     * @return the URL, or {@code null} if the user is not known to have a Gravatar.
+     */
+    String avatarUrlFor(User user, int size);
+
     boolean hasGravatarCreator(User user);
 
     void loadIfUnknown(User user);
@@ -1,7 +1,10 @@
 package org.jenkinsci.plugins.gravatar.cache;
 
 import com.google.common.base.Optional;
+import hudson.init.Terminator;
 import hudson.model.User;
+import java.util.Collection;
+import java.util.Map;
 import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
 
 public enum GravatarImageResolutionCacheInstance implements GravatarImageResolutionCache {
@@ -13,6 +16,14 @@ public enum GravatarImageResolutionCacheInstance implements GravatarImageResolut
         return cache.urlCreatorFor(user);
     }
 
+    public Map<User, Optional<GravatarUrlCreator>> urlCreatorsFor(Collection<User> users) {
+        return cache.urlCreatorsFor(users);
+    }
+
+    public String avatarUrlFor(User user, int size) {
+        return cache.avatarUrlFor(user, size);
+    }
+
     public void loadIfUnknown(User user) {
         cache.loadIfUnknown(user);
     }
@@ -20,4 +31,19 @@ public enum GravatarImageResolutionCacheInstance implements GravatarImageResolut
     public boolean hasGravatarCreator(User user) {
         return cache.hasGravatarCreator(user);
     }
+
+    /**
+     * Forgets all resolutions, e.g. after the configuration changed how users are resolved.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Stops loading in the background when Jenkins shuts down, pending probes are cancelled.
+     */
+    @Terminator
+    public static void shutdown() {
+        INSTANCE.cache.shutdown();
+    }
 }
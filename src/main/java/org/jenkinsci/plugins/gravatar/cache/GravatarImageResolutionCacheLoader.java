@@ -1,67 +1,342 @@
 package org.jenkinsci.plugins.gravatar.cache;
 
+import static org.jenkinsci.plugins.gravatar.model.GravatarUser.gravatarUser;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.gravatar.GravatarConfiguration;
 import org.jenkinsci.plugins.gravatar.boundary.GravatarImageURLVerifier;
+import org.jenkinsci.plugins.gravatar.boundary.GravatarImageVerification;
+import org.jenkinsci.plugins.gravatar.boundary.ProbePriority;
+import org.jenkinsci.plugins.gravatar.metrics.GravatarMetrics;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
 import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
 import org.jenkinsci.plugins.gravatar.model.GravatarUser;
 
-class GravatarImageResolutionCacheLoader extends CacheLoader<GravatarUser, Optional<GravatarUrlCreator>> {
+/**
+ * Loads the {@link GravatarImageResolution} of a user by its user id.
+ */
+class GravatarImageResolutionCacheLoader extends CacheLoader<String, GravatarImageResolution> {
 
     private static final Logger LOG = Logger.getLogger(GravatarImageResolutionCacheLoader.class.getName());
 
-    private final ListeningExecutorService reloader =
-            MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    private static final int RELOAD_THREADS = SystemProperties.getInteger(
+            GravatarImageResolutionCacheLoader.class.getName() + ".reloadThreads", 4);
+
+    /**
+     * Looks up users and their e-mail addresses for reloads and background loads. The threads are daemons that end
+     * when idle, so the reloader holds no thread between lookups and none that keeps Jenkins from stopping. Loads of
+     * users that are shown run before refreshes, see {@link ProbePriority}.
+     */
+    private final ThreadPoolExecutor reloader;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+
+    /**
+     * The reloads and background loads that did not complete yet, at most one per user and priority.
+     */
+    private final Map<PendingLoad, ListenableFuture<GravatarImageResolution>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Users sharing an e-mail address (aliases, service accounts, users created by SCMs) share the verification of
+     * that address for a while, so each mailbox is asked for only once per lookup.
+     */
+    private final Cache<String, GravatarImageVerification> verificationsByEmailHash = CacheBuilder.newBuilder()
+            .expireAfterWrite(GravatarImageResolution.FIRST_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+
+    GravatarImageResolutionCacheLoader() {
+        this(RELOAD_THREADS);
+    }
+
+    @VisibleForTesting
+    GravatarImageResolutionCacheLoader(int reloadThreads) {
+        reloader = new ThreadPoolExecutor(
+                reloadThreads,
+                reloadThreads,
+                1,
+                TimeUnit.MINUTES,
+                // only holds Prioritized tasks, see reloader(ProbePriority)
+                new PriorityBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Gravatar reloader"));
+        reloader.allowCoreThreadTimeOut(true);
+    }
 
     @Override
-    public ListenableFuture<Optional<GravatarUrlCreator>> reload(
-            final GravatarUser gravatarUser, Optional<GravatarUrlCreator> oldValue) throws Exception {
+    public ListenableFuture<GravatarImageResolution> reload(final String userId, GravatarImageResolution oldValue)
+            throws Exception {
+        var gravatarUser = gravatarUser(userId);
         // optimization: if it was previously known, it is rather safe to suspect, that it is still known (who removes a
-        // gravatar?)
-        if (oldValue.isPresent()) {
-            LOG.finer("Reusing old gravatar result value for " + gravatarUser + " because it has been known before.");
+        // gravatar?), so it is only revalidated once a day. Users without a gravatar are asked again less and less
+        // often, most of them never set one up
+        if (!oldValue.isDue(now())) {
+            LOG.finer("Reusing old gravatar result value for " + gravatarUser + " until " + oldValue.nextProbe());
             return Futures.immediateFuture(oldValue);
         }
-        // otherwise, we try it again, maybe it's there now?
+        // otherwise, we try it again, maybe it's there now (or gone)?
+        // the reloader only looks up the e-mail address and sends the probe, it does not wait for the response
         LOG.fine("Scheduling " + gravatarUser + " for reloading");
-        ListenableFuture<Optional<GravatarUrlCreator>> future =
-                reloader.submit(new Callable<Optional<GravatarUrlCreator>>() {
-                    public Optional<GravatarUrlCreator> call() throws Exception {
-                        return load(gravatarUser);
-                    }
-                });
-        return future;
+        return schedule(userId, oldValue, ProbePriority.BACKGROUND);
+    }
+
+    /**
+     * Loads the resolution of a user that is shown without blocking the calling thread, looking up the user and its
+     * e-mail address happens on the reloader.
+     */
+    ListenableFuture<GravatarImageResolution> loadInBackground(final String userId) {
+        LOG.fine("Scheduling " + userId + " for loading");
+        return schedule(userId, null, ProbePriority.INTERACTIVE);
+    }
+
+    /**
+     * Loads the resolution of a user for the periodic lookup, its probe waits for the ones of users that are shown.
+     */
+    GravatarImageResolution loadWithBackgroundPriority(String userId) throws Exception {
+        return loadAsync(gravatarUser(userId), null, ProbePriority.BACKGROUND).get();
+    }
+
+    /**
+     * Loads the user on the reloader, unless it is already scheduled with the same or a higher priority, then the
+     * scheduled load is returned. A load scheduled with a lower priority is not waited for: the new load's probe joins
+     * its probe and raises it to the higher priority.
+     */
+    private ListenableFuture<GravatarImageResolution> schedule(
+            String userId, GravatarImageResolution previous, ProbePriority priority) {
+        for (var scheduledPriority : ProbePriority.values()) {
+            if (scheduledPriority.compareTo(priority) > 0) {
+                break;
+            }
+            var running = pending.get(new PendingLoad(userId, scheduledPriority));
+            if (running != null) {
+                LOG.finer("Loading of " + userId + " is already scheduled");
+                return running;
+            }
+        }
+        var key = new PendingLoad(userId, priority);
+        SettableFuture<GravatarImageResolution> scheduled = SettableFuture.create();
+        var running = pending.putIfAbsent(key, scheduled);
+        if (running != null) {
+            LOG.finer("Loading of " + userId + " is already scheduled");
+            return running;
+        }
+        scheduled.addListener(() -> pending.remove(key, scheduled), MoreExecutors.directExecutor());
+        try {
+            scheduled.setFuture(Futures.submitAsync(
+                    () -> loadAsync(gravatarUser(userId), previous, priority), reloader(priority)));
+        } catch (RejectedExecutionException e) {
+            // shut down
+            scheduled.setException(e);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Forgets the verifications shared between users, e.g. since they were made with another Gravatar server.
+     */
+    void invalidateAll() {
+        verificationsByEmailHash.invalidateAll();
+    }
+
+    /**
+     * Forgets the verification of an e-mail address shared between users, so that it is verified again.
+     */
+    void invalidate(String emailHash) {
+        verificationsByEmailHash.invalidate(emailHash);
+    }
+
+    /**
+     * Stops the reloader and cancels the pending loads, including the probes they wait for.
+     */
+    void shutdown() {
+        reloader.shutdownNow();
+        for (var load : pending.values()) {
+            load.cancel(true);
+        }
+    }
+
+    private Executor reloader(ProbePriority priority) {
+        return task -> reloader.execute(new Prioritized(priority, scheduledCount.incrementAndGet(), task));
+    }
+
+    @VisibleForTesting
+    int pendingLoads() {
+        return pending.size();
     }
 
     @Override
-    public Optional<GravatarUrlCreator> load(GravatarUser gravatarUser) throws Exception {
+    public GravatarImageResolution load(String userId) throws Exception {
+        return loadAsync(gravatarUser(userId), null).get();
+    }
+
+    /**
+     * Loads many users at once, the probes for them are sent in parallel rather than one after another. Users that
+     * cannot be loaded are left out.
+     */
+    @Override
+    public Map<String, GravatarImageResolution> loadAll(Iterable<? extends String> userIds) throws Exception {
+        Map<String, ListenableFuture<GravatarImageResolution>> loading = new LinkedHashMap<>();
+        for (var userId : userIds) {
+            loading.put(userId, loadAsync(gravatarUser(userId), null));
+        }
+        // waits for all of them, failed loads included
+        Futures.successfulAsList(loading.values()).get();
+        Map<String, GravatarImageResolution> loaded = new HashMap<>();
+        for (var entry : loading.entrySet()) {
+            try {
+                loaded.put(entry.getKey(), Futures.getDone(entry.getValue()));
+            } catch (ExecutionException | CancellationException e) {
+                LOG.fine("Failed to load gravatar for user " + entry.getKey() + ", " + e);
+            }
+        }
+        return loaded;
+    }
+
+    ListenableFuture<GravatarImageResolution> loadAsync(
+            final GravatarUser gravatarUser, final GravatarImageResolution previous) {
+        return loadAsync(gravatarUser, previous, ProbePriority.INTERACTIVE);
+    }
+
+    /**
+     * @param previous the resolution that is reloaded, {@code null} when loading a user for the first time
+     */
+    ListenableFuture<GravatarImageResolution> loadAsync(
+            final GravatarUser gravatarUser, final GravatarImageResolution previous, ProbePriority priority) {
+        long start = System.nanoTime();
+        var resolution = resolve(gravatarUser, previous, priority);
+        resolution.addListener(() -> metrics().loaded(System.nanoTime() - start), MoreExecutors.directExecutor());
+        return resolution;
+    }
+
+    private ListenableFuture<GravatarImageResolution> resolve(
+            final GravatarUser gravatarUser, final GravatarImageResolution previous, ProbePriority priority) {
         if (!gravatarUser.emailAddress().isPresent()) {
             LOG.finer("Cannot check for gravatar for user " + gravatarUser + " since no e-mail address is known");
-            return creator();
+            return Futures.immediateFuture(GravatarImageResolution.withoutEmail(now()));
+        }
+        var email = gravatarUser.emailAddress().get();
+        var emailHash = EmailHash.of(email);
+        if (!verifyGravatars()) {
+            // Gravatar shows its default image for addresses without a Gravatar
+            return Futures.immediateFuture(GravatarImageResolution.found(GravatarUrlCreator.ofHash(emailHash), now()));
         }
-        if (verifier().verify(gravatarUser.emailAddress().get())) {
+        // a gravatar found for the same address is revalidated conditionally
+        boolean revalidate = previous != null
+                && previous.isFound()
+                && previous.emailHash().equals(Optional.of(emailHash));
+        var known = revalidate ? previous : null;
+        var recent = verificationsByEmailHash.getIfPresent(emailHash);
+        if (recent != null) {
+            LOG.finer("Reusing recent verification of the e-mail address of " + gravatarUser);
+            return Futures.immediateFuture(resolutionOf(gravatarUser, emailHash, previous, known, recent));
+        }
+        SettableFuture<GravatarImageResolution> result = SettableFuture.create();
+        var probe = verifier().verifyAsync(email, known == null ? null : known.verification().get(), priority);
+        result.addListener(
+                () -> {
+                    if (result.isCancelled()) {
+                        probe.cancel(true);
+                    }
+                },
+                MoreExecutors.directExecutor());
+        probe.whenComplete((verification, e) -> {
+            if (e != null) {
+                result.setException(e);
+                return;
+            }
+            if (verification.isFailed() && previous == null) {
+                // Gravatar could not be asked, that says nothing about whether the user has one: it is not cached
+                // as a miss, so it is loaded again the next time it is shown
+                result.setException(new IOException("Gravatar could not be asked for " + gravatarUser));
+                return;
+            }
+            if (!verification.isFailed()) {
+                verificationsByEmailHash.put(emailHash, verification);
+            }
+            result.set(resolutionOf(gravatarUser, emailHash, previous, known, verification));
+        });
+        return result;
+    }
+
+    private GravatarImageResolution resolutionOf(
+            GravatarUser gravatarUser,
+            String emailHash,
+            GravatarImageResolution previous,
+            GravatarImageResolution known,
+            GravatarImageVerification verification) {
+        if (verification.isFailed()) {
+            LOG.fine("Keeping gravatar resolution for " + gravatarUser + " since it could not be revalidated");
+            return previous;
+        }
+        if (verification.exists()) {
             LOG.fine("Verified gravatar for " + gravatarUser);
-            return creatorFor(gravatarUser);
+            var urlCreator = known == null ? GravatarUrlCreator.ofHash(emailHash) : known.urlCreator().get();
+            return GravatarImageResolution.found(
+                    urlCreator, now(), verification.etag().orNull(), verification.lastModified().orNull());
         }
-        return creator();
+        return GravatarImageResolution.notFound(emailHash, now(), previous);
+    }
+
+    private long now() {
+        return System.currentTimeMillis();
     }
 
-    private Optional<GravatarUrlCreator> creator() {
-        return Optional.absent();
+    @VisibleForTesting
+    boolean verifyGravatars() {
+        return GravatarConfiguration.verifiesGravatars();
     }
 
-    private Optional<GravatarUrlCreator> creatorFor(GravatarUser user) {
-        return Optional.of(GravatarUrlCreator.of(user));
+    @VisibleForTesting
+    GravatarMetrics metrics() {
+        return GravatarMetrics.get();
     }
 
-    private GravatarImageURLVerifier verifier() {
+    @VisibleForTesting
+    GravatarImageURLVerifier verifier() {
         return new GravatarImageURLVerifier();
     }
+
+    private record PendingLoad(String userId, ProbePriority priority) {}
+
+    /**
+     * A task of the reloader, tasks of a higher priority run first, tasks of the same priority in the order they were
+     * scheduled.
+     */
+    private record Prioritized(ProbePriority priority, long sequence, Runnable task)
+            implements Runnable, Comparable<Prioritized> {
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(Prioritized other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
 }
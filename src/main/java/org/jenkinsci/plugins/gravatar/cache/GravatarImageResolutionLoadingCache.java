@@ -1,74 +1,387 @@
 package org.jenkinsci.plugins.gravatar.cache;
 
-import static org.jenkinsci.plugins.gravatar.model.GravatarUser.gravatarUser;
-
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
 import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.gravatar.GravatarConfiguration;
+import org.jenkinsci.plugins.gravatar.metrics.GravatarMetrics;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
 import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
 import org.jenkinsci.plugins.gravatar.model.GravatarUser;
 
+/**
+ * Caches the {@link GravatarImageResolution} of each user, keyed by the user id.
+ */
 public class GravatarImageResolutionLoadingCache {
 
     private static final Logger LOG = Logger.getLogger(GravatarImageResolutionLoadingCache.class.getName());
 
-    private final LoadingCache<GravatarUser, Optional<GravatarUrlCreator>> cache;
+    /**
+     * If set, {@link #urlCreatorFor(User)} never waits for Gravatar either: it only returns what is cached and loads
+     * unknown users in the background.
+     */
+    private static final boolean NON_BLOCKING_READS = SystemProperties.getBoolean(
+            GravatarImageResolutionLoadingCache.class.getName() + ".nonBlockingReads");
+
+    private final LoadingCache<String, GravatarImageResolution> cache;
+
+    private final GravatarImageResolutionCacheLoader loader;
+
+    private final Set<String> loadingInBackground = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> savedWhileUnknown = ConcurrentHashMap.newKeySet();
+
+    /**
+     * At most this many users are cached, unbounded if not positive. Guava evicts the users that were rendered least
+     * recently first, it has no frequency-aware policy like Caffeine's W-TinyLFU, which would need the plugin to depend
+     * on the caffeine-api plugin. Scans are kept from flushing the users that are shown instead, see
+     * {@link #loadIfUnknown(User)}.
+     */
+    private static final long MAXIMUM_SIZE = SystemProperties.getLong(
+            GravatarImageResolutionLoadingCache.class.getName() + ".maximumSize", 50_000L);
+
+    /**
+     * The cache grows beyond this many users if need be, it just does not make room for more up front.
+     */
+    private static final int MAXIMUM_INITIAL_CAPACITY = 1 << 16;
 
     GravatarImageResolutionLoadingCache() {
-        cache = CacheBuilder.newBuilder()
-                .concurrencyLevel(2)
-                .refreshAfterWrite(30, TimeUnit.MINUTES)
-                .initialCapacity(User.getAll().size())
-                .build(createUrlForUser());
+        loader = createUrlForUser();
+        // sized from the stored resolutions rather than User.getAll(), which would load every user
+        cache = newCacheBuilder(MAXIMUM_SIZE, GravatarImageResolutionStore.storedSize()).build(loader);
+        GravatarMetrics.get().watch(cache);
+    }
+
+    /**
+     * @param maximumSize the maximum number of cached users, unbounded if not positive
+     * @param expectedSize the number of users expected to be cached
+     */
+    @VisibleForTesting
+    static CacheBuilder<Object, Object> newCacheBuilder(long maximumSize, int expectedSize) {
+        var builder = CacheBuilder.newBuilder()
+                // one segment per core, so that avatars rendered concurrently do not contend for the same lock
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors())
+                .refreshAfterWrite(GravatarImageResolution.FIRST_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+                .recordStats();
+        // the expected size is read from disk, the capacity is allocated up front
+        int initialCapacity = Math.max(0, Math.min(expectedSize, MAXIMUM_INITIAL_CAPACITY));
+        if (maximumSize > 0) {
+            builder.maximumSize(maximumSize).initialCapacity((int) Math.min(initialCapacity, maximumSize));
+        } else {
+            builder.initialCapacity(initialCapacity);
+        }
+        return builder;
     }
 
     @VisibleForTesting
-    protected GravatarImageResolutionLoadingCache(LoadingCache<GravatarUser, Optional<GravatarUrlCreator>> cache) {
+    protected GravatarImageResolutionLoadingCache(
+            LoadingCache<String, GravatarImageResolution> cache, GravatarImageResolutionCacheLoader loader) {
         this.cache = cache;
+        this.loader = loader;
     }
 
-    private CacheLoader<GravatarUser, Optional<GravatarUrlCreator>> createUrlForUser() {
+    private GravatarImageResolutionCacheLoader createUrlForUser() {
         return new GravatarImageResolutionCacheLoader();
     }
 
     public Optional<GravatarUrlCreator> urlCreatorFor(User user) {
+        if (nonBlockingReads()) {
+            var key = keyOf(user);
+            var resolution = cache.getIfPresent(key);
+            if (resolution == null) {
+                loadInBackground(key);
+                return Optional.absent();
+            }
+            return resolution.urlCreator();
+        }
         try {
-            return cache.get(keyOf(user));
+            return cache.get(keyOf(user)).urlCreator();
         } catch (ExecutionException e) {
             return Optional.absent();
         }
     }
 
+    /**
+     * Resolves many users with a single lookup in the cache. The users that are not cached are loaded together, the
+     * probes for them are sent in parallel. With non-blocking reads they are loaded in the background instead.
+     */
+    public Map<User, Optional<GravatarUrlCreator>> urlCreatorsFor(Collection<User> users) {
+        var keys = new LinkedHashSet<String>();
+        for (var user : users) {
+            keys.add(keyOf(user));
+        }
+        Map<String, GravatarImageResolution> resolutions;
+        if (nonBlockingReads()) {
+            resolutions = cache.getAllPresent(keys);
+            for (var key : keys) {
+                if (!resolutions.containsKey(key)) {
+                    loadInBackground(key);
+                }
+            }
+        } else {
+            try {
+                resolutions = cache.getAll(keys);
+            } catch (ExecutionException | UncheckedExecutionException | InvalidCacheLoadException e) {
+                LOG.fine("Failed to load gravatars of " + keys.size() + " users, " + e);
+                resolutions = cache.getAllPresent(keys);
+            }
+        }
+        Map<User, Optional<GravatarUrlCreator>> urlCreators = new LinkedHashMap<>();
+        for (var user : users) {
+            var resolution = resolutions.get(keyOf(user));
+            urlCreators.put(user, resolution == null ? Optional.absent() : resolution.urlCreator());
+        }
+        return urlCreators;
+    }
+
+    @VisibleForTesting
+    boolean nonBlockingReads() {
+        return NON_BLOCKING_READS;
+    }
+
+    /**
+     * Resolves the avatar URL of a user with a single lookup in the cache. It never waits for Gravatar, users that are
+     * not known yet are loaded in the background. If Gravatar is not asked at all, they are resolved right away.
+     *
+     * @return the URL, or {@code null} if the user is not known to have a Gravatar.
+     */
+    public String avatarUrlFor(User user, int size) {
+        return avatarUrlFor(keyOf(user), size);
+    }
+
+    @VisibleForTesting
+    String avatarUrlFor(String key, int size) {
+        var resolution = cache.getIfPresent(key);
+        if (resolution == null && !verifyGravatars()) {
+            resolution = loadWithoutVerification(key);
+        }
+        if (resolution == null) {
+            loadInBackground(key);
+            return null;
+        }
+        // getIfPresent refreshes the user once the refresh period passed, the loader only asks Gravatar again when the
+        // user is due
+        if (!resolution.isFound()) {
+            return null;
+        }
+        return resolution.urlCreator().get().buildUrlForSize(size);
+    }
+
+    /**
+     * Without verification a user is resolved by looking up its e-mail address only, which does not need to wait.
+     */
+    private GravatarImageResolution loadWithoutVerification(String key) {
+        try {
+            return cache.get(key);
+        } catch (ExecutionException e) {
+            LOG.fine("Failed to resolve gravatar for user " + key + ", " + e.getCause());
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    boolean verifyGravatars() {
+        return GravatarConfiguration.verifiesGravatars();
+    }
+
+    /**
+     * Loads a user that is not cached without blocking the calling thread, at most one load per user is queued.
+     */
+    private void loadInBackground(String key) {
+        if (!loadingInBackground.add(key)) {
+            return;
+        }
+        Futures.addCallback(
+                loader.loadInBackground(key),
+                new FutureCallback<GravatarImageResolution>() {
+                    @Override
+                    public void onSuccess(GravatarImageResolution resolution) {
+                        cache.asMap().putIfAbsent(key, resolution);
+                        loadingInBackground.remove(key);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        LOG.fine("Failed to load gravatar for user " + key + ", " + t);
+                        loadingInBackground.remove(key);
+                    }
+                },
+                MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Loads a user that is not cached for the periodic lookup, its probe waits for the ones of users that are shown.
+     * Once the cache is full, users are only loaded when they are shown, so that a sweep over all users does not evict
+     * the ones that are shown often.
+     */
     public void loadIfUnknown(User user) {
-        var gravatarUser = keyOf(user);
-        if (!isKnown(gravatarUser)) {
+        var key = keyOf(user);
+        if (isFull()) {
+            LOG.finer("Not loading gravatar for user " + key + " ahead of time, the cache is full");
+            return;
+        }
+        if (!isKnown(key)) {
             try {
-                cache.get(gravatarUser);
+                cache.get(key, () -> loader.loadWithBackgroundPriority(key));
             } catch (ExecutionException e) {
-                LOG.info("Failed to load gravatar for user " + gravatarUser);
+                LOG.info("Failed to load gravatar for user " + key);
+            }
+        }
+    }
+
+    private boolean isFull() {
+        long maximumSize = maximumSize();
+        return maximumSize > 0 && cache.size() >= maximumSize;
+    }
+
+    @VisibleForTesting
+    long maximumSize() {
+        return MAXIMUM_SIZE;
+    }
+
+    /**
+     * Resolves a saved user again if its e-mail address is not the one it was resolved with, or if it was not known to
+     * have a Gravatar, so that saving a user is a way to have a Gravatar that was just set up checked right away.
+     * Users that are not cached are remembered for the periodic lookup, see {@link #drainSavedWhileUnknown()}.
+     *
+     * @param emailHash the {@link EmailHash} of the user's current e-mail address, absent if it has none
+     */
+    void userChanged(String key, Optional<String> emailHash) {
+        var resolution = cache.getIfPresent(key);
+        if (resolution == null) {
+            savedWhileUnknown.add(key);
+            return;
+        }
+        if (resolution.emailHash().equals(emailHash)) {
+            if (resolution.isFound() || !emailHash.isPresent()) {
+                return;
             }
+            LOG.fine("User " + key + " was saved, checking again whether it has a gravatar");
+            // the miss may be shared with other users of the address
+            loader.invalidate(emailHash.get());
+        } else {
+            LOG.fine("E-mail address of user " + key + " changed, resolving its gravatar again");
+        }
+        cache.invalidate(key);
+        loadInBackground(key);
+    }
+
+    void userDeleted(String key) {
+        cache.invalidate(key);
+        savedWhileUnknown.remove(key);
+    }
+
+    /**
+     * @return the ids of the users that were created or saved while they were not cached, since the last call.
+     */
+    Set<String> drainSavedWhileUnknown() {
+        var drained = new HashSet<String>();
+        for (var it = savedWhileUnknown.iterator(); it.hasNext(); ) {
+            drained.add(it.next());
+            it.remove();
         }
+        return drained;
     }
 
-    boolean isKnown(GravatarUser user) {
-        return cache.asMap().containsKey(user);
+    void invalidateAll() {
+        loader.invalidateAll();
+        cache.invalidateAll();
+    }
+
+    void shutdown() {
+        loader.shutdown();
+    }
+
+    boolean isKnown(String key) {
+        return cache.asMap().containsKey(key);
     }
 
     public boolean hasGravatarCreator(User user) {
         return hasGravatarCreator(keyOf(user));
     }
 
-    private boolean hasGravatarCreator(GravatarUser user) {
-        return isKnown(user) && cache.getUnchecked(user).isPresent();
+    private boolean hasGravatarCreator(String key) {
+        return isKnown(key) && cache.getUnchecked(key).isFound();
+    }
+
+    private String keyOf(User user) {
+        return user.getId();
+    }
+
+    /**
+     * Puts previously stored resolutions into the cache. Users without a Gravatar that are due to be checked again
+     * are left out, so that the periodic lookup checks them. Found Gravatars are always kept and revalidated when
+     * they are shown.
+     *
+     * @param resolutions the stored resolutions by user id
+     */
+    void restore(Map<String, GravatarImageResolution> resolutions) {
+        long now = System.currentTimeMillis();
+        int restored = 0;
+        for (var entry : resolutions.entrySet()) {
+            var resolution = entry.getValue();
+            if (resolution.isFound() || !resolution.isDue(now)) {
+                cache.asMap().putIfAbsent(entry.getKey(), resolution);
+                restored++;
+            }
+        }
+        LOG.fine("Restored " + restored + " of " + resolutions.size() + " stored gravatar resolutions");
+    }
+
+    /**
+     * @return the cached resolutions by user id.
+     */
+    Map<String, GravatarImageResolution> snapshot() {
+        return ImmutableMap.copyOf(cache.asMap());
     }
 
-    private GravatarUser keyOf(User user) {
-        return gravatarUser(user);
+    /**
+     * Keeps the cache in line with the users: a user whose e-mail address changed is resolved again right away and a
+     * deleted user is forgotten.
+     */
+    @Extension
+    public static class UserListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof User user) {
+                cache().userChanged(user.getId(), GravatarUser.emailAddressOf(user).transform(EmailHash::of));
+            }
+        }
+
+        @Override
+        public void onDeleted(Saveable o, XmlFile file) {
+            if (o instanceof User user) {
+                cache().userDeleted(user.getId());
+            }
+        }
+
+        @VisibleForTesting
+        GravatarImageResolutionLoadingCache cache() {
+            return GravatarImageResolutionCacheInstance.INSTANCE.cache;
+        }
     }
 }
@@ -0,0 +1,233 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import static com.google.common.base.Strings.emptyToNull;
+import static com.google.common.base.Strings.nullToEmpty;
+
+import com.google.common.annotations.VisibleForTesting;
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.PeriodicWork;
+import hudson.model.TaskListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+
+/**
+ * Keeps the Gravatar resolutions in a compact binary file in {@code JENKINS_HOME}, so that a restarted controller
+ * shows avatars right away instead of asking Gravatar for every user again.
+ *
+ * Each entry is stored as the user id, the 16 byte MD5 digest of the e-mail address, whether a Gravatar was found,
+ * when Gravatar was asked and how often in a row it was missed. Found Gravatars also keep the {@code ETag} and
+ * {@code Last-Modified} they are revalidated with.
+ */
+public class GravatarImageResolutionStore {
+
+    private static final Logger LOG = Logger.getLogger(GravatarImageResolutionStore.class.getName());
+
+    private static final int VERSION = 1;
+
+    /**
+     * The version and the number of entries.
+     */
+    private static final int HEADER_BYTES = 8;
+
+    /**
+     * An entry without an e-mail address and an empty user id: the length of the user id, the flags, when Gravatar
+     * was asked and the misses.
+     */
+    private static final int MIN_ENTRY_BYTES = 2 + 1 + 8 + 1;
+
+    private static final int HAS_EMAIL = 1;
+
+    private static final int FOUND = 2;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final File file;
+
+    @VisibleForTesting
+    GravatarImageResolutionStore(File file) {
+        this.file = file;
+    }
+
+    static GravatarImageResolutionStore inJenkinsHome() {
+        return new GravatarImageResolutionStore(new File(Jenkins.get().getRootDir(), "gravatar-resolutions.bin"));
+    }
+
+    /**
+     * @return how many resolutions are stored in {@code JENKINS_HOME}, read from the header of the file only. 0 if
+     * nothing has been stored yet or Jenkins is not running.
+     */
+    static int storedSize() {
+        if (Jenkins.getInstanceOrNull() == null) {
+            return 0;
+        }
+        return inJenkinsHome().size();
+    }
+
+    @VisibleForTesting
+    int size() {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), 8))) {
+            int version = in.readInt();
+            return version != VERSION ? 0 : plausibleSize(in.readInt());
+        } catch (IOException e) {
+            // also thrown if nothing has been stored yet
+            return 0;
+        }
+    }
+
+    /**
+     * @return the stored resolutions by user id, empty if nothing has been stored yet.
+     */
+    Map<String, GravatarImageResolution> load() throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                LOG.info("Ignoring stored gravatar resolutions of unknown version " + version);
+                return Map.of();
+            }
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Stored gravatar resolutions are corrupt, their count is " + size);
+            }
+            // a corrupt count fails reading below rather than allocating up front
+            Map<String, GravatarImageResolution> resolutions = new HashMap<>(plausibleSize(size) * 4 / 3 + 1);
+            for (int i = 0; i < size; i++) {
+                var userId = in.readUTF();
+                int flags = in.readByte();
+                String emailHash = null;
+                if ((flags & HAS_EMAIL) != 0) {
+                    var digest = new byte[16];
+                    in.readFully(digest);
+                    emailHash = HEX.formatHex(digest);
+                }
+                long probed = in.readLong();
+                int misses = in.readUnsignedByte();
+                boolean found = (flags & FOUND) != 0;
+                String etag = null;
+                String lastModified = null;
+                if (found) {
+                    etag = emptyToNull(in.readUTF());
+                    lastModified = emptyToNull(in.readUTF());
+                }
+                resolutions.put(userId, resolution(emailHash, found, probed, misses, etag, lastModified));
+            }
+            return resolutions;
+        } catch (NoSuchFileException e) {
+            return Map.of();
+        }
+    }
+
+    /**
+     * @return the stored count, at most as many entries as fit into the file, so that a truncated or corrupt file
+     * does not make room for more.
+     */
+    private int plausibleSize(int storedSize) {
+        long fitting = Math.max(0, (file.length() - HEADER_BYTES) / MIN_ENTRY_BYTES);
+        return (int) Math.max(0, Math.min(storedSize, fitting));
+    }
+
+    private GravatarImageResolution resolution(
+            String emailHash, boolean found, long probed, int misses, String etag, String lastModified) {
+        if (emailHash == null) {
+            return GravatarImageResolution.withoutEmail(probed);
+        }
+        if (found) {
+            return GravatarImageResolution.found(GravatarUrlCreator.ofHash(emailHash), probed, etag, lastModified);
+        }
+        return GravatarImageResolution.notFound(emailHash, probed, Math.max(1, misses));
+    }
+
+    /**
+     * Replaces the stored resolutions. Saves overlapping each other, e.g. the periodic one and the one at shutdown,
+     * each write a file of their own, the last one moved into place wins.
+     */
+    void save(Map<String, GravatarImageResolution> resolutions) throws IOException {
+        var tmp = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp");
+        try {
+            write(tmp, resolutions);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void write(Path tmp, Map<String, GravatarImageResolution> resolutions) throws IOException {
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(VERSION);
+            out.writeInt(resolutions.size());
+            for (var entry : resolutions.entrySet()) {
+                var resolution = entry.getValue();
+                out.writeUTF(entry.getKey());
+                if (resolution.emailHash().isPresent()) {
+                    out.writeByte(HAS_EMAIL | (resolution.isFound() ? FOUND : 0));
+                    out.write(HEX.parseHex(resolution.emailHash().get()));
+                } else {
+                    out.writeByte(0);
+                }
+                out.writeLong(resolution.probed());
+                out.writeByte(Math.min(resolution.misses(), 255));
+                if (resolution.isFound()) {
+                    out.writeUTF(nullToEmpty(resolution.etag().orNull()));
+                    out.writeUTF(nullToEmpty(resolution.lastModified().orNull()));
+                }
+            }
+        }
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void restore() {
+        try {
+            GravatarImageResolutionCacheInstance.INSTANCE.cache.restore(inJenkinsHome().load());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to restore gravatar resolutions", e);
+        }
+    }
+
+    @Terminator
+    public static void persist() {
+        try {
+            inJenkinsHome().save(GravatarImageResolutionCacheInstance.INSTANCE.cache.snapshot());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to store gravatar resolutions", e);
+        }
+    }
+
+    /**
+     * Stores the resolutions regularly, so that they survive a controller that is not shut down cleanly.
+     */
+    @Extension
+    public static class PeriodicPersistence extends AsyncPeriodicWork {
+
+        public PeriodicPersistence() {
+            super("Gravatar resolution persistence");
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            persist();
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return PeriodicWork.MIN * 30;
+        }
+    }
+}
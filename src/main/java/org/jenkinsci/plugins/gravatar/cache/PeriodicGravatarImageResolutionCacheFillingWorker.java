@@ -30,15 +30,34 @@ import hudson.model.AsyncPeriodicWork;
 import hudson.model.PeriodicWork;
 import hudson.model.TaskListener;
 import hudson.model.User;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.jenkinsci.plugins.gravatar.metrics.GravatarMetrics;
 
 /**
  * Async periodic worker that updates the cached map in {@link org.jenkinsci.plugins.gravatar.UserGravatarResolver}
- * It will run at startup and every 30 minutes to check if any user has set a gravatar
- * since last run. The {@link org.jenkinsci.plugins.gravatar.UserGravatarResolver} will cache the check for gravatars
- * so the time required when showing the People pages will be as short as possible. This
- * worker task makes sure that the cache is updated every 30 minutes.
+ * It will run at startup and every 30 minutes to check users that are not cached yet. The
+ * {@link org.jenkinsci.plugins.gravatar.UserGravatarResolver} will cache the check for gravatars
+ * so the time required when showing the People pages will be as short as possible. Users without a gravatar are
+ * checked again when they are shown after 30 minutes, then less and less often, down to once a day, so a gravatar
+ * that was just set up can take up to a day to show. Saving the user, or changing the Gravatar configuration, has it
+ * checked right away.
+ * Only the users that were saved while they were not cached are checked on most runs. All users are checked at
+ * startup and then once every
+ * {@code org.jenkinsci.plugins.gravatar.cache.PeriodicGravatarImageResolutionCacheFillingWorker.fullSweepHours}
+ * (24 by default), which picks up users that were never saved.
+ * Users are checked in parallel, the number of concurrent checks can be tuned with the
+ * {@code org.jenkinsci.plugins.gravatar.cache.PeriodicGravatarImageResolutionCacheFillingWorker.concurrency}
+ * system property (1 checks them one after another).
  *
  * @author Erik Ramfelt
  */
@@ -49,11 +68,67 @@ public class PeriodicGravatarImageResolutionCacheFillingWorker extends AsyncPeri
         super("Gravatar periodic lookup");
     }
 
+    private static final Logger LOG =
+            Logger.getLogger(PeriodicGravatarImageResolutionCacheFillingWorker.class.getName());
+
+    private static final int CONCURRENCY = SystemProperties.getInteger(
+            PeriodicGravatarImageResolutionCacheFillingWorker.class.getName() + ".concurrency", 16);
+
+    private static final long FULL_SWEEP_MILLIS = TimeUnit.HOURS.toMillis(SystemProperties.getLong(
+            PeriodicGravatarImageResolutionCacheFillingWorker.class.getName() + ".fullSweepHours", 24L));
+
+    private volatile long lastFullSweep;
+
+    private volatile boolean sweptAll;
+
     @Override
     protected void execute(TaskListener listener) throws IOException, InterruptedException {
-        for (var user : getAllUsers()) {
+        long now = now();
+        boolean full = !sweptAll || now - lastFullSweep >= fullSweepMillis();
+        var users = full ? getAllUsers() : getChangedUsers();
+        var progress = new Progress(listener, users.size());
+        listener.getLogger()
+                .println("Checking Gravatars of " + users.size() + (full ? " users, " : " new or changed users, ")
+                        + concurrency() + " at a time");
+        if (concurrency() <= 1) {
+            for (var user : users) {
+                loadIfUnknown(user, progress);
+            }
+        } else {
+            var executor = Executors.newFixedThreadPool(
+                    concurrency(), new NamingThreadFactory(new DaemonThreadFactory(), name));
+            try {
+                for (var user : users) {
+                    executor.execute(() -> loadIfUnknown(user, progress));
+                }
+                executor.shutdown();
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    progress.report();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        progress.finished();
+        metrics().swept(users.size(), progress.elapsedMillis());
+        if (full) {
+            lastFullSweep = now;
+            sweptAll = true;
+        }
+    }
+
+    private void loadIfUnknown(User user, Progress progress) {
+        try {
             cache().loadIfUnknown(user);
+        } catch (RuntimeException e) {
+            LOG.log(Level.INFO, "Failed to load gravatar for user " + user.getId(), e);
         }
+        progress.checked();
+    }
+
+    @VisibleForTesting
+    int concurrency() {
+        return CONCURRENCY;
     }
 
     @VisibleForTesting
@@ -61,6 +136,31 @@ public class PeriodicGravatarImageResolutionCacheFillingWorker extends AsyncPeri
         return User.getAll();
     }
 
+    /**
+     * @return the users that were created or saved while they were not cached since the last run.
+     */
+    @VisibleForTesting
+    Collection<User> getChangedUsers() {
+        var users = new ArrayList<User>();
+        for (var id : loadingCache().drainSavedWhileUnknown()) {
+            var user = User.getById(id, false);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @VisibleForTesting
+    long fullSweepMillis() {
+        return FULL_SWEEP_MILLIS;
+    }
+
+    @VisibleForTesting
+    long now() {
+        return System.currentTimeMillis();
+    }
+
     @Override
     public long getRecurrencePeriod() {
         return PeriodicWork.MIN * 30;
@@ -71,8 +171,58 @@ public class PeriodicGravatarImageResolutionCacheFillingWorker extends AsyncPeri
         return PeriodicWork.MIN;
     }
 
+    @VisibleForTesting
+    GravatarMetrics metrics() {
+        return GravatarMetrics.get();
+    }
+
     @VisibleForTesting
     GravatarImageResolutionCache cache() {
         return GravatarImageResolutionCacheInstance.INSTANCE;
     }
+
+    @VisibleForTesting
+    GravatarImageResolutionLoadingCache loadingCache() {
+        return GravatarImageResolutionCacheInstance.INSTANCE.cache;
+    }
+
+    /**
+     * Reports to the task listener every time another tenth of the users has been checked.
+     */
+    private static final class Progress {
+
+        private final TaskListener listener;
+
+        private final int total;
+
+        private final int step;
+
+        private final AtomicInteger checked = new AtomicInteger();
+
+        private final long start = System.nanoTime();
+
+        Progress(TaskListener listener, int total) {
+            this.listener = listener;
+            this.total = total;
+            this.step = Math.max(1, total / 10);
+        }
+
+        void checked() {
+            if (checked.incrementAndGet() % step == 0) {
+                report();
+            }
+        }
+
+        void report() {
+            listener.getLogger().println("Checked " + checked.get() + " of " + total + " users");
+        }
+
+        void finished() {
+            listener.getLogger().println("Checked " + checked.get() + " users in " + elapsedMillis() + " ms");
+        }
+
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
 }
@@ -5,6 +5,7 @@ import de.bripkens.gravatar.Gravatar;
 import hudson.init.InitMilestone;
 import hudson.init.Initializer;
 import jenkins.security.csp.AvatarContributor;
+import org.jenkinsci.plugins.gravatar.GravatarConfiguration;
 import org.kohsuke.accmod.restrictions.suppressions.SuppressRestrictedWarnings;
 
 public class GravatarFactory {
@@ -21,16 +22,50 @@ public class GravatarFactory {
         return new Gravatar().setStandardDefaultImage(DefaultImage.HTTP_404);
     }
 
+    /**
+     * @return the URL all Gravatar images are served from, the configured one or the public Gravatar.
+     */
+    public String baseUrl() {
+        return GravatarConfiguration.baseUrlOrDefault();
+    }
+
+    /**
+     * Points a URL built by a {@link Gravatar} to the {@link #baseUrl()}, since the library only knows the public
+     * Gravatar.
+     */
+    public String rebase(String gravatarUrl) {
+        for (var prefix : new String[] {Gravatar.HTTPS_URL, Gravatar.URL}) {
+            if (gravatarUrl.startsWith(prefix)) {
+                return baseUrl() + gravatarUrl.substring(prefix.length());
+            }
+        }
+        return gravatarUrl;
+    }
+
+    /**
+     * Builds the same URL as {@link #userGravatar()} from an already hashed e-mail address.
+     *
+     * @param emailHash the {@link org.jenkinsci.plugins.gravatar.model.EmailHash} of the e-mail address
+     * @param size the size of the image in pixels
+     */
+    public String userImageUrl(String emailHash, int size) {
+        return baseUrl() + emailHash + "?s=" + size + "&d=mm";
+    }
+
     private Gravatar gravatar() {
         return new Gravatar().setHttps(true);
     }
 
     /**
-     * Allow loading images from Gravatar HTTPS URLs in Content Security Policy.
+     * Allow loading images from Gravatar HTTPS URLs and the configured base URL in Content Security Policy.
      */
     @Initializer(after = InitMilestone.SYSTEM_CONFIG_ADAPTED)
     @SuppressRestrictedWarnings(AvatarContributor.class)
     public static void allowGravatarDomainForCSP() {
         AvatarContributor.allow(Gravatar.HTTPS_URL);
+        var baseUrl = GravatarConfiguration.baseUrlOrDefault();
+        if (!baseUrl.equals(Gravatar.HTTPS_URL)) {
+            AvatarContributor.allow(baseUrl);
+        }
     }
 }
@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.gravatar.metrics;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts how the Gravatar cache, its loader, the probes sent to Gravatar and the periodic sweep behave.
+ *
+ * The metrics are registered as the MXBean {@code org.jenkinsci.plugins.gravatar:type=Metrics} and shown on the
+ * Gravatar page in Manage Jenkins.
+ */
+public final class GravatarMetrics implements GravatarMetricsMXBean {
+
+    private static final Logger LOG = Logger.getLogger(GravatarMetrics.class.getName());
+
+    private static final String OBJECT_NAME = "org.jenkinsci.plugins.gravatar:type=Metrics";
+
+    private static final GravatarMetrics INSTANCE = new GravatarMetrics();
+
+    private volatile Cache<?, ?> cache = CacheBuilder.newBuilder().build();
+
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    private final LongAdder probesFound = new LongAdder();
+
+    private final LongAdder probesNotFound = new LongAdder();
+
+    private final LongAdder probeFailures = new LongAdder();
+
+    private final LongAdder probesShortCircuited = new LongAdder();
+
+    private final LatencyHistogram probeLatency = new LatencyHistogram();
+
+    private final LongAdder sweeps = new LongAdder();
+
+    private volatile int lastSweepUsers;
+
+    private volatile long lastSweepMillis;
+
+    @VisibleForTesting
+    GravatarMetrics() {}
+
+    public static GravatarMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param cache the cache to report the size and statistics of, it should record its statistics.
+     */
+    public void watch(Cache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    public void loaded(long nanos) {
+        loadLatency.record(nanos);
+    }
+
+    /**
+     * @param found whether a Gravatar was found, ignored if the probe failed
+     * @param failed whether Gravatar could not be asked
+     */
+    public void probed(boolean found, boolean failed, long nanos) {
+        if (failed) {
+            probeFailures.increment();
+        } else if (found) {
+            probesFound.increment();
+        } else {
+            probesNotFound.increment();
+        }
+        probeLatency.record(nanos);
+    }
+
+    /**
+     * Counts a probe that was not sent since Gravatar could not be reached.
+     */
+    public void shortCircuited() {
+        probesShortCircuited.increment();
+    }
+
+    public void swept(int users, long millis) {
+        sweeps.increment();
+        lastSweepUsers = users;
+        lastSweepMillis = millis;
+    }
+
+    private CacheStats cacheStats() {
+        return cache.stats();
+    }
+
+    @Override
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheStats().hitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cacheStats().missCount();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        return cacheStats().hitRate();
+    }
+
+    @Override
+    public long getCacheEvictionCount() {
+        return cacheStats().evictionCount();
+    }
+
+    @Override
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    @Override
+    public long getProbeFoundCount() {
+        return probesFound.sum();
+    }
+
+    @Override
+    public long getProbeNotFoundCount() {
+        return probesNotFound.sum();
+    }
+
+    @Override
+    public long getProbeFailureCount() {
+        return probeFailures.sum();
+    }
+
+    @Override
+    public long getProbeShortCircuitCount() {
+        return probesShortCircuited.sum();
+    }
+
+    @Override
+    public LatencyHistogram getProbeLatency() {
+        return probeLatency;
+    }
+
+    @Override
+    public long getSweepCount() {
+        return sweeps.sum();
+    }
+
+    @Override
+    public int getLastSweepUsers() {
+        return lastSweepUsers;
+    }
+
+    @Override
+    public long getLastSweepMillis() {
+        return lastSweepMillis;
+    }
+
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Failed to register the gravatar metrics", e);
+        }
+    }
+
+    @Terminator
+    public static void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.log(Level.FINE, "Failed to unregister the gravatar metrics", e);
+        }
+    }
+}
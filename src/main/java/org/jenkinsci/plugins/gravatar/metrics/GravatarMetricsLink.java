@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.gravatar.metrics;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+
+/**
+ * Read-only page in Manage Jenkins that shows the {@link GravatarMetrics}.
+ */
+@Extension
+public class GravatarMetricsLink extends ManagementLink {
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-analytics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Gravatar";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Cache hit rate, load and probe latencies of the Gravatar plugin.";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "gravatar";
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.SYSTEM_READ;
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    public GravatarMetrics getMetrics() {
+        return GravatarMetrics.get();
+    }
+}
@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.gravatar.metrics;
+
+/**
+ * The metrics of the Gravatar plugin, as they are exposed via JMX.
+ */
+public interface GravatarMetricsMXBean {
+
+    long getCacheSize();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    double getCacheHitRate();
+
+    long getCacheEvictionCount();
+
+    LatencyHistogram getLoadLatency();
+
+    long getProbeFoundCount();
+
+    long getProbeNotFoundCount();
+
+    long getProbeFailureCount();
+
+    long getProbeShortCircuitCount();
+
+    LatencyHistogram getProbeLatency();
+
+    long getSweepCount();
+
+    int getLastSweepUsers();
+
+    long getLastSweepMillis();
+}
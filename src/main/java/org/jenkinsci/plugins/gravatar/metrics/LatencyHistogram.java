@@ -0,0 +1,67 @@
+package org.jenkinsci.plugins.gravatar.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in fixed buckets, cheap enough to be recorded for every probe and load.
+ */
+public final class LatencyHistogram {
+
+    private static final long[] BUCKET_MILLIS = {10, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_MILLIS.length + 1];
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_MILLIS.length && millis > BUCKET_MILLIS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (var bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getMeanMillis() {
+        long count = getCount();
+        return count == 0 ? 0 : totalNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * @return the number of recorded latencies by the upper bound of their bucket, in ascending order.
+     */
+    public Map<String, Long> getBuckets() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+            counts.put("<= " + BUCKET_MILLIS[i] + " ms", buckets[i].sum());
+        }
+        counts.put("> " + BUCKET_MILLIS[BUCKET_MILLIS.length - 1] + " ms", buckets[BUCKET_MILLIS.length].sum());
+        return counts;
+    }
+}
@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.gravatar.model;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.HexFormat;
+import java.util.Locale;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Computes the hash Gravatar identifies an e-mail address by.
+ */
+public final class EmailHash {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final int LENGTH = 32;
+
+    private EmailHash() {}
+
+    /**
+     * @param email email address
+     * @return the hex encoded MD5 digest of the trimmed, lower-cased address.
+     */
+    public static String of(String email) {
+        checkNotNull(email);
+        return DigestUtils.md5Hex(email.trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return the first 8 bytes of the digest, so a hash can be kept in two longs rather than a string.
+     */
+    public static long high(String emailHash) {
+        checkArgument(emailHash.length() == LENGTH, "Not an e-mail hash: %s", emailHash);
+        return Long.parseUnsignedLong(emailHash, 0, LENGTH / 2, 16);
+    }
+
+    /**
+     * @return the last 8 bytes of the digest.
+     */
+    public static long low(String emailHash) {
+        checkArgument(emailHash.length() == LENGTH, "Not an e-mail hash: %s", emailHash);
+        return Long.parseUnsignedLong(emailHash, LENGTH / 2, LENGTH, 16);
+    }
+
+    /**
+     * @return the hash made of the {@link #high} and {@link #low} bytes of its digest.
+     */
+    public static String of(long high, long low) {
+        return HEX.toHexDigits(high) + HEX.toHexDigits(low);
+    }
+}
@@ -4,30 +4,99 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.annotations.VisibleForTesting;
-import de.bripkens.gravatar.Gravatar;
+import java.util.Arrays;
 import org.jenkinsci.plugins.gravatar.factory.GravatarFactory;
 
 public class GravatarUrlCreator {
 
-    private final String email;
+    /**
+     * Avatars are only rendered in a handful of sizes, only that many URLs are kept per user.
+     */
+    private static final int MEMOIZED_SIZES = 8;
 
-    private GravatarUrlCreator(String email) {
-        this.email = email;
+    /**
+     * The digest of the e-mail address, see {@link EmailHash#high} and {@link EmailHash#low}.
+     */
+    private final long emailHashHigh;
+
+    private final long emailHashLow;
+
+    private volatile UrlsBySize urls = UrlsBySize.EMPTY;
+
+    private GravatarUrlCreator(String emailHash) {
+        this.emailHashHigh = EmailHash.high(emailHash);
+        this.emailHashLow = EmailHash.low(emailHash);
     }
 
     public static GravatarUrlCreator of(GravatarUser user) {
         checkNotNull(user);
         checkArgument(user.emailAddress().isPresent(), "Only users with e-mail address are supported");
-        return new GravatarUrlCreator(user.emailAddress().get());
+        return new GravatarUrlCreator(EmailHash.of(user.emailAddress().get()));
+    }
+
+    /**
+     * @param emailHash the {@link EmailHash} of the user's e-mail address, e.g. as restored from disk.
+     */
+    public static GravatarUrlCreator ofHash(String emailHash) {
+        checkNotNull(emailHash);
+        return new GravatarUrlCreator(emailHash);
+    }
+
+    public String emailHash() {
+        return EmailHash.of(emailHashHigh, emailHashLow);
     }
 
     public String buildUrlForSize(int size) {
         checkArgument(size > 0, "Only positive sizes are allowed.");
-        return gravatar().setSize(size).getUrl(email);
+        var current = urls;
+        var url = current.get(size);
+        if (url == null) {
+            url = factory().userImageUrl(emailHash(), size);
+            // a concurrent update may get lost, the URL is simply built again the next time
+            urls = current.with(size, url);
+        }
+        return url;
     }
 
     @VisibleForTesting
-    Gravatar gravatar() {
-        return new GravatarFactory().userGravatar();
+    GravatarFactory factory() {
+        return new GravatarFactory();
+    }
+
+    /**
+     * Immutable list of URLs by size, searched linearly since it holds no more than {@link #MEMOIZED_SIZES} entries.
+     */
+    private static final class UrlsBySize {
+
+        static final UrlsBySize EMPTY = new UrlsBySize(new int[0], new String[0]);
+
+        private final int[] sizes;
+
+        private final String[] urls;
+
+        private UrlsBySize(int[] sizes, String[] urls) {
+            this.sizes = sizes;
+            this.urls = urls;
+        }
+
+        String get(int size) {
+            for (int i = 0; i < sizes.length; i++) {
+                if (sizes[i] == size) {
+                    return urls[i];
+                }
+            }
+            return null;
+        }
+
+        UrlsBySize with(int size, String url) {
+            if (sizes.length >= MEMOIZED_SIZES) {
+                return this;
+            }
+            var newSizes = Arrays.copyOf(sizes, sizes.length + 1);
+            var newUrls = Arrays.copyOf(urls, urls.length + 1);
+            newSizes[sizes.length] = size;
+            newUrls[urls.length] = url;
+            return new UrlsBySize(newSizes, newUrls);
+        }
     }
 }
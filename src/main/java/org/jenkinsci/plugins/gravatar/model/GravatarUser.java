@@ -16,11 +16,7 @@ public class GravatarUser {
 
     private final Supplier<Optional<String>> mailSupplier = Suppliers.memoize(new Supplier<Optional<String>>() {
         public Optional<String> get() {
-            var mailProperty = user().getProperty(Mailer.UserProperty.class);
-            if (mailProperty == null) {
-                return Optional.absent();
-            }
-            return Optional.fromNullable(emptyToNull(mailProperty.getAddress()));
+            return emailAddressOf(user());
         }
     });
 
@@ -29,11 +25,23 @@ public class GravatarUser {
         this.userId = user.getId();
     }
 
+    private GravatarUser(String userId) {
+        this.userId = userId;
+    }
+
     public static GravatarUser gravatarUser(User user) {
         checkNotNull(user);
         return new GravatarUser(user);
     }
 
+    /**
+     * @param userId the id of a Jenkins user, e.g. as restored from disk.
+     */
+    public static GravatarUser gravatarUser(String userId) {
+        checkNotNull(userId);
+        return new GravatarUser(userId);
+    }
+
     public User user() {
         return User.getById(userId(), false);
     }
@@ -46,6 +54,17 @@ public class GravatarUser {
         return mailSupplier.get();
     }
 
+    /**
+     * @return the e-mail address of the user as it is configured right now, absent if it has none.
+     */
+    public static Optional<String> emailAddressOf(User user) {
+        var mailProperty = user.getProperty(Mailer.UserProperty.class);
+        if (mailProperty == null) {
+            return Optional.absent();
+        }
+        return Optional.fromNullable(emptyToNull(mailProperty.getAddress()));
+    }
+
     @Override
     public String toString() {
         return String.format("GravatarUser{userId='%s'}", userId);
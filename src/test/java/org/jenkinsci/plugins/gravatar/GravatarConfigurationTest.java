@@ -0,0 +1,86 @@
+package org.jenkinsci.plugins.gravatar;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+import hudson.model.User;
+import hudson.tasks.Mailer;
+import hudson.util.FormValidation;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class GravatarConfigurationTest {
+
+    private JenkinsRule j;
+
+    @BeforeEach
+    public void setUp(JenkinsRule j) {
+        this.j = j;
+    }
+
+    @Test
+    public void itVerifiesGravatarsByDefault() {
+        assertThat(GravatarConfiguration.get().isShowDefaultImage(), is(false));
+        assertThat(GravatarConfiguration.verifiesGravatars(), is(true));
+    }
+
+    @Test
+    public void itKeepsTheConfigurationOnARoundtrip() throws Exception {
+        GravatarConfiguration.get().setShowDefaultImage(true);
+        j.configRoundtrip();
+        assertThat(GravatarConfiguration.get().isShowDefaultImage(), is(true));
+    }
+
+    @Test
+    public void itNormalizesTheBaseUrl() {
+        GravatarConfiguration.get().setBaseUrl(" https://avatars.example.com/avatar ");
+        assertThat(GravatarConfiguration.baseUrlOrDefault(), is("https://avatars.example.com/avatar/"));
+
+        GravatarConfiguration.get().setBaseUrl("");
+        assertThat(GravatarConfiguration.get().getBaseUrl(), is(nullValue()));
+        assertThat(GravatarConfiguration.baseUrlOrDefault(), is("https://secure.gravatar.com/avatar/"));
+    }
+
+    @Test
+    public void itChecksTheBaseUrl() {
+        var configuration = GravatarConfiguration.get();
+        assertThat(configuration.doCheckBaseUrl("").kind, is(FormValidation.Kind.OK));
+        assertThat(
+                configuration.doCheckBaseUrl("https://avatars.example.com/avatar/").kind,
+                is(FormValidation.Kind.OK));
+        assertThat(configuration.doCheckBaseUrl("ftp://avatars.example.com/").kind, is(FormValidation.Kind.ERROR));
+        assertThat(configuration.doCheckBaseUrl("not a url").kind, is(FormValidation.Kind.ERROR));
+    }
+
+    @Test
+    public void itShowsAvatarsFromTheConfiguredBaseUrl() throws Exception {
+        GravatarConfiguration.get().setShowDefaultImage(true);
+        GravatarConfiguration.get().setBaseUrl("https://avatars.example.com/avatar/");
+        var user = User.get("mirrored", true, Collections.emptyMap());
+        user.addProperty(new Mailer.UserProperty("MyEmailAddress@example.com"));
+
+        var url = new UserGravatarResolver().findAvatarFor(user, 48, 48);
+
+        assertThat(url, startsWith("https://avatars.example.com/avatar/"));
+    }
+
+    @Test
+    public void itShowsTheDefaultImageWithoutAskingGravatar() throws Exception {
+        GravatarConfiguration.get().setShowDefaultImage(true);
+        var user = User.get("no-gravatar", true, Collections.emptyMap());
+        user.addProperty(new Mailer.UserProperty("MyEmailAddress@example.com"));
+
+        var url = new UserGravatarResolver().findAvatarFor(user, 48, 48);
+
+        assertThat(GravatarConfiguration.verifiesGravatars(), is(false));
+        assertThat(url, startsWith("https://secure.gravatar.com/avatar/"));
+        assertThat(url, endsWith("?s=48&d=mm"));
+    }
+}
@@ -0,0 +1,198 @@
+package org.jenkinsci.plugins.gravatar;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.model.User;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import org.jenkinsci.plugins.gravatar.boundary.GravatarImageDiskCache;
+import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+
+@WithJenkins
+public class GravatarImageProxyTest {
+
+    private static final String URL = "https://secure.gravatar.com/avatar/0bc83cb571cd1c50ba6f3e8a78ef1346?s=48&d=mm";
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G'};
+
+    @TempDir
+    File directory;
+
+    JenkinsRule j;
+
+    User user;
+
+    GravatarImageResolutionCache cache;
+
+    GravatarImageDiskCache images;
+
+    GravatarImageDiskCache.Image image;
+
+    GravatarImageProxy proxy;
+
+    StaplerRequest2 req;
+
+    StaplerResponse2 rsp;
+
+    ByteArrayOutputStream body;
+
+    @BeforeEach
+    public void setUp(JenkinsRule j) throws Exception {
+        this.j = j;
+        user = User.get("user", true, Collections.emptyMap());
+        cache = mock(GravatarImageResolutionCache.class);
+        when(cache.avatarUrlFor(same(user), anyInt())).thenReturn(URL);
+        images = mock(GravatarImageDiskCache.class);
+        image = storedImage();
+        when(images.image(URL)).thenReturn(CompletableFuture.completedFuture(image));
+        proxy = spy(new GravatarImageProxy());
+        doReturn(cache).when(proxy).cache();
+        doReturn(images).when(proxy).images();
+        req = mock(StaplerRequest2.class);
+        rsp = mock(StaplerResponse2.class);
+        body = new ByteArrayOutputStream();
+        when(rsp.getOutputStream()).thenReturn(outputStream(body));
+    }
+
+    @Test
+    public void itServesTheStoredAvatarOfAUser() throws Exception {
+        doCallRealMethod().when(images).copy(any(), any());
+
+        proxy.doIndex(req, rsp, "user", 48);
+
+        verify(rsp).setContentType("image/png");
+        verify(rsp).setHeader("ETag", image.etag());
+        verify(rsp).setHeader("Cache-Control", "private, max-age=86400");
+        assertThat(body.toByteArray(), is(PNG));
+    }
+
+    @Test
+    public void itConfirmsAnUnchangedAvatar() throws Exception {
+        when(req.getHeader("If-None-Match")).thenReturn(image.etag());
+
+        proxy.doIndex(req, rsp, "user", 48);
+
+        verify(rsp).setStatus(304);
+        verify(rsp, never()).getOutputStream();
+    }
+
+    @Test
+    public void itDoesNotServeUnknownUsers() throws Exception {
+        proxy.doIndex(req, rsp, "unknown", 48);
+
+        verify(rsp).sendError(404);
+        verify(images, never()).image(anyString());
+    }
+
+    @Test
+    public void itDoesNotServeUsersWithoutAGravatar() throws Exception {
+        when(cache.avatarUrlFor(same(user), anyInt())).thenReturn(null);
+
+        proxy.doIndex(req, rsp, "user", 48);
+
+        verify(rsp).sendError(404);
+    }
+
+    @Test
+    public void itServesAvatarsInAFewSizesOnly() throws Exception {
+        proxy.doIndex(req, rsp, "user", 50);
+        proxy.doIndex(req, rsp, "user", 2048);
+
+        verify(cache).avatarUrlFor(user, 64);
+        verify(cache).avatarUrlFor(user, 256);
+    }
+
+    @Test
+    public void itRoundsSizesUpToTheNextServedOne() {
+        assertThat(GravatarImageProxy.servedSize(1), is(16));
+        assertThat(GravatarImageProxy.servedSize(16), is(16));
+        assertThat(GravatarImageProxy.servedSize(17), is(24));
+        assertThat(GravatarImageProxy.servedSize(48), is(48));
+        assertThat(GravatarImageProxy.servedSize(257), is(256));
+    }
+
+    @Test
+    public void itLetsTheBrowserLoadAnAvatarThatCannotBeFetched() throws Exception {
+        when(images.image(URL)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException()));
+
+        proxy.doIndex(req, rsp, "user", 48);
+
+        verify(rsp).sendRedirect2(URL);
+    }
+
+    @Test
+    public void itLetsTheBrowserLoadAnAvatarThatIsNotStoredYet() throws Exception {
+        when(images.image(URL)).thenReturn(new CompletableFuture<>());
+
+        proxy.doIndex(req, rsp, "user", 48);
+
+        verify(rsp).sendRedirect2(URL);
+        verify(rsp, never()).getOutputStream();
+    }
+
+    @Test
+    public void itPointsToItselfForAUser() {
+        assertThat(GravatarImageProxy.urlFor(user, 48), is(j.getURL() + "gravatar-avatar/?user=user&s=48"));
+    }
+
+    @Test
+    public void itMakesBrowsersLoadAvatarsFromJenkins() {
+        GravatarConfiguration.get().setProxyImages(true);
+        var resolver = spy(new UserGravatarResolver());
+        doReturn(cache).when(resolver).cache();
+
+        assertThat(resolver.findAvatarFor(user, 48, 48), is(GravatarImageProxy.urlFor(user, 48)));
+    }
+
+    private GravatarImageDiskCache.Image storedImage() throws Exception {
+        var file = new File(directory, "image").toPath();
+        try (var out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeUTF("image/png");
+            out.writeLong(1L);
+            out.write(PNG);
+        }
+        return new GravatarImageDiskCache.Image(file, "image/png", 1L);
+    }
+
+    private static ServletOutputStream outputStream(ByteArrayOutputStream body) {
+        return new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {}
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        };
+    }
+}
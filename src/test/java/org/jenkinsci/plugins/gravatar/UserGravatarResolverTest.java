@@ -29,16 +29,19 @@ import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import hudson.model.User;
 import hudson.tasks.Mailer;
-import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+import org.jenkinsci.plugins.gravatar.cache.GravatarImageResolutionCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -49,7 +52,7 @@ public class UserGravatarResolverTest {
 
     Mailer.UserProperty mailPropertyOfUser;
 
-    GravatarUrlCreator urlCreator;
+    GravatarImageResolutionCache cache;
 
     UserGravatarResolver resolver;
 
@@ -57,11 +60,13 @@ public class UserGravatarResolverTest {
     public void setUp() {
         user = Mockito.mock(User.class);
         mailPropertyOfUser = Mockito.mock(Mailer.UserProperty.class);
-        urlCreator = Mockito.mock(GravatarUrlCreator.class);
+        cache = Mockito.mock(GravatarImageResolutionCache.class);
         resolver = Mockito.spy(new UserGravatarResolver());
 
         when(user.getId()).thenReturn("user");
         when(user.getProperty(same(Mailer.UserProperty.class))).thenReturn(mailPropertyOfUser);
+        doReturn(cache).when(resolver).cache();
+        doReturn(false).when(resolver).proxyImages();
     }
 
     @Test
@@ -73,24 +78,32 @@ public class UserGravatarResolverTest {
     @Test
     public void resolverShouldNotLookupAnUnknowUser() {
         makeUserUnknown();
-        verify(resolver, never()).urlCreatorFor(any(User.class));
+        resolver.findAvatarFor(user, 48, 48);
+        verify(cache, never()).urlCreatorFor(any(User.class));
+        verify(cache, never()).loadIfUnknown(any(User.class));
     }
 
     @Test
     public void aKnownUserIsResolved() {
         makeUserKnown();
         assertThat(resolver.findAvatarFor(user, 48, 48), is(not(nullValue())));
-        verify(resolver, atLeastOnce()).urlCreatorFor(same(user));
+        verify(cache, atLeastOnce()).avatarUrlFor(same(user), eq(48));
+    }
+
+    @Test
+    public void aUserIsResolvedWithASingleLookup() {
+        makeUserKnown();
+        resolver.findAvatarFor(user, 48, 48);
+        verify(cache, times(1)).avatarUrlFor(same(user), anyInt());
+        verifyNoMoreInteractions(cache);
     }
 
     private void makeUserKnown() {
-        doReturn(true).when(resolver).isGravatarUser(any(User.class));
-        doReturn(urlCreator).when(resolver).urlCreatorFor(same(user));
-        when(urlCreator.buildUrlForSize(anyInt())).thenReturn("http://my.image.com/123123123");
+        when(cache.avatarUrlFor(same(user), anyInt())).thenReturn("http://my.image.com/123123123");
     }
 
     private void makeUserUnknown() {
-        doReturn(false).when(resolver).isGravatarUser(any(User.class));
+        when(cache.avatarUrlFor(any(User.class), anyInt())).thenReturn(null);
     }
 
     /*
@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.jenkinsci.plugins.gravatar.boundary.GravatarCircuitBreaker.State;
+import org.junit.jupiter.api.Test;
+
+public class GravatarCircuitBreakerTest {
+
+    private static final long COOL_DOWN = 1_000;
+
+    private long now;
+
+    private final GravatarCircuitBreaker circuitBreaker = new GravatarCircuitBreaker(3, COOL_DOWN, () -> now);
+
+    @Test
+    public void itDoesNotAcceptANonPositiveThreshold() {
+        assertThrows(IllegalArgumentException.class, () -> new GravatarCircuitBreaker(0, COOL_DOWN, () -> now));
+    }
+
+    @Test
+    public void itLetsProbesThroughUntilTheThresholdIsReached() {
+        fail(2);
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(true));
+        fail(1);
+        assertThat(circuitBreaker.state(), is(State.OPEN));
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(false));
+    }
+
+    @Test
+    public void itOnlyCountsConsecutiveFailures() {
+        fail(2);
+        circuitBreaker.onSuccess();
+        fail(2);
+        assertThat(circuitBreaker.state(), is(State.CLOSED));
+    }
+
+    @Test
+    public void itLetsASingleProbeThroughAfterTheCoolDown() {
+        fail(3);
+        now += COOL_DOWN;
+
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(true));
+        assertThat(circuitBreaker.state(), is(State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(false));
+    }
+
+    @Test
+    public void itClosesIfTheHalfOpenProbeSucceeds() {
+        fail(3);
+        now += COOL_DOWN;
+        circuitBreaker.tryAcquire();
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.state(), is(State.CLOSED));
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(true));
+    }
+
+    @Test
+    public void itOpensForAnotherCoolDownIfTheHalfOpenProbeFails() {
+        fail(3);
+        now += COOL_DOWN;
+        circuitBreaker.tryAcquire();
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.state(), is(State.OPEN));
+        now += COOL_DOWN - 1;
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(false));
+    }
+
+    @Test
+    public void itLetsAnotherProbeThroughIfTheHalfOpenProbeIsCancelled() {
+        fail(3);
+        now += COOL_DOWN;
+        circuitBreaker.onCancelled(circuitBreaker.tryAcquire().get());
+
+        assertThat(circuitBreaker.state(), is(State.OPEN));
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(true));
+        assertThat(circuitBreaker.state(), is(State.HALF_OPEN));
+    }
+
+    @Test
+    public void itStaysClosedIfAProbeIsCancelled() {
+        fail(1);
+        circuitBreaker.onCancelled(circuitBreaker.tryAcquire().get());
+
+        assertThat(circuitBreaker.state(), is(State.CLOSED));
+    }
+
+    @Test
+    public void itKeepsTheHalfOpenProbeIfAnotherProbeIsCancelled() {
+        var sentBeforeOpening = circuitBreaker.tryAcquire().get();
+        fail(3);
+        now += COOL_DOWN;
+        circuitBreaker.tryAcquire();
+
+        circuitBreaker.onCancelled(sentBeforeOpening);
+
+        assertThat(circuitBreaker.state(), is(State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(false));
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.tryAcquire();
+            circuitBreaker.onFailure();
+        }
+    }
+}
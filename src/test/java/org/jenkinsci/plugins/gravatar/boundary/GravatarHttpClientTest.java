@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.net.http.HttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class GravatarHttpClientTest {
+
+    @AfterEach
+    public void tearDown() {
+        GravatarHttpClient.invalidate();
+    }
+
+    @Test
+    public void itSharesTheClientBetweenProbes() {
+        assertThat(GravatarHttpClient.get(), is(sameInstance(GravatarHttpClient.get())));
+    }
+
+    @Test
+    public void itPrefersHttp2() {
+        assertThat(GravatarHttpClient.get().version(), is(HttpClient.Version.HTTP_2));
+    }
+
+    @Test
+    public void itRebuildsTheClientOnceInvalidated() {
+        var client = GravatarHttpClient.get();
+        GravatarHttpClient.invalidate();
+        assertThat(GravatarHttpClient.get(), is(not(sameInstance(client))));
+    }
+}
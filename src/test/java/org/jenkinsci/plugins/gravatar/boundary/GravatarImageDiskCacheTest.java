@@ -0,0 +1,148 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GravatarImageDiskCacheTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G'};
+
+    @TempDir
+    Path directory;
+
+    GravatarStubServer server;
+
+    GravatarImageDiskCache images;
+
+    String url;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new GravatarStubServer().respondWith(200, Map.of("Content-Type", "image/png"), PNG);
+        url = server.url() + "0bc83cb571cd1c50ba6f3e8a78ef1346?s=48&d=mm";
+        images = spy(new GravatarImageDiskCache(directory));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void itStoresAFetchedImage() throws Exception {
+        var image = images.image(url).get();
+
+        assertThat(image.contentType(), is("image/png"));
+        assertThat(bytesOf(image), is(PNG));
+    }
+
+    @Test
+    public void itFetchesAnImageOnlyOnceADay() throws Exception {
+        images.image(url).get();
+        var image = images.image(url).get();
+
+        assertThat(bytesOf(image), is(PNG));
+        assertThat(server.requests().size(), is(1));
+    }
+
+    @Test
+    public void itFetchesAnImageAgainAfterADay() throws Exception {
+        var first = images.image(url).get();
+        doReturn(first.fetched() + GravatarImageDiskCache.MAX_AGE_MILLIS).when(images).now();
+
+        var second = images.image(url).get();
+
+        assertThat(server.requests().size(), is(2));
+        assertThat(second.etag().equals(first.etag()), is(false));
+    }
+
+    @Test
+    public void itKeepsServingAStoredImageIfItCannotBeFetchedAgain() throws Exception {
+        var first = images.image(url).get();
+        doReturn(first.fetched() + GravatarImageDiskCache.MAX_AGE_MILLIS).when(images).now();
+        server.respondWith(500, Map.of());
+
+        assertThat(images.image(url).get(), is(first));
+    }
+
+    @Test
+    public void itFailsIfAnImageThatIsNotStoredCannotBeFetched() {
+        server.respondWith(404, Map.of());
+        assertThrows(ExecutionException.class, () -> images.image(url).get());
+    }
+
+    @Test
+    public void itDoesNotStoreAnythingButImages() throws Exception {
+        server.respondWith(200, Map.of("Content-Type", "text/html"), "<html></html>".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(ExecutionException.class, () -> images.image(url).get());
+        assertThat(filesIn(directory), is(0L));
+    }
+
+    @Test
+    public void itDoesNotStoreTooLargeImages() throws Exception {
+        server.respondWith(
+                200, Map.of("Content-Type", "image/png"), new byte[GravatarImageDiskCache.MAX_IMAGE_BYTES + 1]);
+
+        assertThrows(ExecutionException.class, () -> images.image(url).get());
+        assertThat(filesIn(directory), is(0L));
+    }
+
+    @Test
+    public void itEvictsImagesThatWereNotAskedForInAWhile() throws Exception {
+        images.image(url).get();
+        doReturn(System.currentTimeMillis() + GravatarImageDiskCache.EVICT_AFTER_MILLIS + 1000)
+                .when(images)
+                .now();
+
+        images.evictStale();
+
+        assertThat(filesIn(directory), is(0L));
+    }
+
+    @Test
+    public void itKeepsImagesThatWereAskedForRecently() throws Exception {
+        images.image(url).get();
+
+        images.evictStale();
+
+        assertThat(filesIn(directory), is(1L));
+        images.image(url).get();
+        assertThat(server.requests().size(), is(1));
+    }
+
+    @Test
+    public void itEvictsNothingBeforeAnImageIsStored() throws Exception {
+        var missing = directory.resolve("missing");
+
+        new GravatarImageDiskCache(missing).evictStale();
+
+        assertThat(Files.exists(missing), is(false));
+    }
+
+    private byte[] bytesOf(GravatarImageDiskCache.Image image) throws Exception {
+        var out = new ByteArrayOutputStream();
+        images.copy(image, out);
+        return out.toByteArray();
+    }
+
+    private static long filesIn(Path directory) throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
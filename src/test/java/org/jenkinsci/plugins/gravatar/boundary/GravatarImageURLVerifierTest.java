@@ -25,30 +25,70 @@
 
 package org.jenkinsci.plugins.gravatar.boundary;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import com.google.common.base.Optional;
+import de.bripkens.gravatar.Gravatar;
+import java.net.ConnectException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.jenkinsci.plugins.gravatar.factory.GravatarFactory;
+import org.jenkinsci.plugins.gravatar.metrics.GravatarMetrics;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.mockito.junit.jupiter.MockitoSettings;
-import org.mockito.quality.Strictness;
 
 @ExtendWith(MockitoExtension.class)
-@MockitoSettings(strictness = Strictness.LENIENT)
 public class GravatarImageURLVerifierTest {
 
+    private static final String EMAIL = "eramfelt@gmail.com";
+
+    private static final String ETAG = "\"7a1a3a8b\"";
+
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
     @Spy
     private GravatarImageURLVerifier urlVerifier = new GravatarImageURLVerifier();
 
+    @Mock
+    private GravatarMetrics metrics;
+
     @BeforeEach
     public void setUp() {
-        doReturn(new GravatarFactory().testGravatar()).when(urlVerifier).gravatar();
+        // defaults that some tests replace or do not get to
+        lenient().doReturn(new GravatarFactory().testGravatar()).when(urlVerifier).gravatar();
+        lenient().doReturn(metrics).when(urlVerifier).metrics();
+        lenient()
+                .doReturn(new GravatarCircuitBreaker(1, Long.MAX_VALUE, System::nanoTime))
+                .when(urlVerifier)
+                .circuitBreaker();
+        lenient().doReturn(new SingleFlight<>()).when(urlVerifier).flights();
     }
 
     @Test
@@ -65,4 +105,211 @@ public class GravatarImageURLVerifierTest {
     public void doesNotAllowNullEMails() {
         assertThrows(NullPointerException.class, () -> urlVerifier.verify(null));
     }
+
+    @Test
+    public void itRecordsTheValidatorsOfAFoundGravatar() throws Exception {
+        try (var server = new GravatarStubServer()) {
+            server.respondWith(200, Map.of("ETag", ETAG, "Last-Modified", LAST_MODIFIED));
+            useStubServer(server);
+
+            var verification = urlVerifier.verifyAsync(EMAIL, null).get();
+
+            assertThat(verification.exists(), is(true));
+            assertThat(verification.etag(), is(Optional.of(ETAG)));
+            assertThat(verification.lastModified(), is(Optional.of(LAST_MODIFIED)));
+            verify(metrics).probed(eq(true), eq(false), anyLong());
+        }
+    }
+
+    @Test
+    public void itRevalidatesAFoundGravatarConditionally() throws Exception {
+        try (var server = new GravatarStubServer()) {
+            server.respondWith(304, Map.of());
+            useStubServer(server);
+
+            var verification = urlVerifier
+                    .verifyAsync(EMAIL, GravatarImageVerification.found(ETAG, LAST_MODIFIED))
+                    .get();
+
+            assertThat(server.requests().get(0).getFirst("If-None-Match"), is(ETAG));
+            assertThat(server.requests().get(0).getFirst("If-Modified-Since"), is(LAST_MODIFIED));
+            assertThat(verification.exists(), is(true));
+            assertThat(verification.etag(), is(Optional.of(ETAG)));
+        }
+    }
+
+    @Test
+    public void itNoticesARemovedGravatar() throws Exception {
+        try (var server = new GravatarStubServer()) {
+            server.respondWith(404, Map.of());
+            useStubServer(server);
+
+            var verification = urlVerifier
+                    .verifyAsync(EMAIL, GravatarImageVerification.found(ETAG, LAST_MODIFIED))
+                    .get();
+
+            assertThat(verification.exists(), is(false));
+            assertThat(verification.isFailed(), is(false));
+        }
+    }
+
+    @Test
+    public void itReportsAnUnreachableGravatarAsFailed() throws Exception {
+        String url;
+        try (var server = new GravatarStubServer()) {
+            url = server.url();
+        }
+        useUrl(url);
+
+        assertThat(urlVerifier.verifyAsync(EMAIL, null).get().isFailed(), is(true));
+        verify(metrics).probed(eq(false), eq(true), anyLong());
+    }
+
+    @Test
+    public void itDoesNotAskGravatarWhileItCannotBeReached() throws Exception {
+        try (var server = new GravatarStubServer()) {
+            server.respondWith(200, Map.of());
+            useStubServer(server);
+            urlVerifier.circuitBreaker().onFailure();
+
+            assertThat(urlVerifier.verifyAsync(EMAIL, null).get().isFailed(), is(true));
+            assertThat(server.requests().isEmpty(), is(true));
+            verify(metrics).shortCircuited();
+        }
+    }
+
+    @Test
+    public void itDoesNotSendQueuedProbesOnceGravatarCannotBeReached() throws Exception {
+        doReturn(new InFlightProbeLimiter(1)).when(urlVerifier).limiter();
+        var client = mock(HttpClient.class);
+        var sent = new CompletableFuture<HttpResponse<Void>>();
+        doReturn(sent).when(client).sendAsync(any(), any());
+        doReturn(client).when(urlVerifier).client();
+
+        var first = urlVerifier.verifyAsync(EMAIL, null);
+        var queued = urlVerifier.verifyAsync("MyEmailAddressABCDE@example.com", null);
+        sent.completeExceptionally(new ConnectException());
+
+        assertThat(first.get().isFailed(), is(true));
+        assertThat(queued.get().isFailed(), is(true));
+        verify(client, times(1)).sendAsync(any(), any());
+        verify(metrics).shortCircuited();
+    }
+
+    @Test
+    public void itCompletesManyQueuedProbesOnceGravatarCannotBeReached() throws Exception {
+        var limiter = new InFlightProbeLimiter(1);
+        doReturn(limiter).when(urlVerifier).limiter();
+        var client = mock(HttpClient.class);
+        var sent = new CompletableFuture<HttpResponse<Void>>();
+        doReturn(sent).when(client).sendAsync(any(), any());
+        doReturn(client).when(urlVerifier).client();
+        urlVerifier.verifyAsync(EMAIL, null);
+        List<CompletableFuture<GravatarImageVerification>> queued = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            queued.add(urlVerifier.verifyAsync("user" + i + "@example.com", null));
+        }
+
+        sent.completeExceptionally(new ConnectException());
+
+        for (var verification : queued) {
+            assertThat(verification.get().isFailed(), is(true));
+        }
+        assertThat(limiter.available(), is(1));
+        verify(client, times(1)).sendAsync(any(), any());
+    }
+
+    @Test
+    public void itDoesNotQueueProbesWhileGravatarCannotBeReached() throws Exception {
+        urlVerifier.circuitBreaker().onFailure();
+
+        assertThat(urlVerifier.verifyAsync(EMAIL, null).get().isFailed(), is(true));
+        verify(urlVerifier, never()).limiter();
+        verify(urlVerifier, never()).client();
+    }
+
+    @Test
+    public void itLetsAnotherProbeThroughIfTheHalfOpenProbeIsCancelled() throws Exception {
+        var circuitBreaker = new GravatarCircuitBreaker(1, 0, System::nanoTime);
+        doReturn(circuitBreaker).when(urlVerifier).circuitBreaker();
+        circuitBreaker.onFailure();
+        var client = mock(HttpClient.class);
+        doReturn(new CompletableFuture<HttpResponse<Void>>()).when(client).sendAsync(any(), any());
+        doReturn(client).when(urlVerifier).client();
+
+        urlVerifier.verifyAsync(EMAIL, null).cancel(true);
+
+        assertThat(circuitBreaker.state(), is(GravatarCircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.tryAcquire().isPresent(), is(true));
+    }
+
+    @Test
+    public void itRaisesAWaitingProbeThatAnInteractiveVerificationJoins() throws Exception {
+        doReturn(new InFlightProbeLimiter(1)).when(urlVerifier).limiter();
+        var client = mock(HttpClient.class);
+        List<CompletableFuture<HttpResponse<Void>>> sent = new ArrayList<>();
+        when(client.sendAsync(any(), any())).thenAnswer(invocation -> {
+            var exchange = new CompletableFuture<HttpResponse<Void>>();
+            sent.add(exchange);
+            return exchange;
+        });
+        doReturn(client).when(urlVerifier).client();
+        HttpResponse<Void> response = mock();
+        when(response.statusCode()).thenReturn(404);
+
+        urlVerifier.verifyAsync(EMAIL, null);
+        urlVerifier.verifyAsync("other@example.com", null, ProbePriority.BACKGROUND);
+        urlVerifier.verifyAsync("shown@example.com", null, ProbePriority.BACKGROUND);
+        var shown = urlVerifier.verifyAsync("shown@example.com", null, ProbePriority.INTERACTIVE);
+        sent.get(0).complete(response);
+
+        var requests = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(client, times(2)).sendAsync(requests.capture(), any());
+        assertThat(requests.getAllValues().get(1).uri().toString(), containsString(EmailHash.of("shown@example.com")));
+        sent.get(1).complete(response);
+        assertThat(shown.get().exists(), is(false));
+    }
+
+    @Test
+    public void itAsksTheConfiguredServer() throws Exception {
+        try (var server = new GravatarStubServer()) {
+            server.respondWith(200, Map.of());
+            var factory = spy(new GravatarFactory());
+            doReturn(server.url()).when(factory).baseUrl();
+            doReturn(factory).when(urlVerifier).factory();
+
+            assertThat(urlVerifier.verifyAsync(EMAIL, null).get().exists(), is(true));
+            assertThat(server.requests().size(), is(1));
+        }
+    }
+
+    @Test
+    public void itSharesOneProbeBetweenConcurrentVerificationsOfAnAddress() throws Exception {
+        var client = mock(HttpClient.class);
+        var sent = new CompletableFuture<HttpResponse<Void>>();
+        doReturn(sent).when(client).sendAsync(any(), any());
+        doReturn(client).when(urlVerifier).client();
+        HttpResponse<Void> response = mock();
+        when(response.statusCode()).thenReturn(200);
+        when(response.headers()).thenReturn(HttpHeaders.of(Map.of(), (name, value) -> true));
+
+        var first = urlVerifier.verifyAsync(EMAIL, null);
+        var second = urlVerifier.verifyAsync(EMAIL, null);
+        sent.complete(response);
+
+        assertThat(first.get().exists(), is(true));
+        assertThat(second.get().exists(), is(true));
+        verify(client, times(1)).sendAsync(any(), any());
+        verify(metrics, times(1)).probed(eq(true), eq(false), anyLong());
+    }
+
+    private void useStubServer(GravatarStubServer server) {
+        useUrl(server.url());
+    }
+
+    private void useUrl(String url) {
+        var gravatar = mock(Gravatar.class);
+        when(gravatar.getUrl(anyString())).thenReturn(url + "0bc83cb571cd1c50ba6f3e8a78ef1346?d=404");
+        doReturn(gravatar).when(urlVerifier).gravatar();
+    }
 }
@@ -0,0 +1,69 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local HTTP server standing in for Gravatar in tests, it answers every request with the same status and headers.
+ */
+class GravatarStubServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final List<Headers> requests = new CopyOnWriteArrayList<>();
+
+    private volatile int status = 200;
+
+    private volatile Map<String, String> responseHeaders = Map.of();
+
+    private volatile byte[] body;
+
+    GravatarStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange.getRequestHeaders());
+            responseHeaders.forEach(exchange.getResponseHeaders()::add);
+            if (body == null) {
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                exchange.sendResponseHeaders(status, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    GravatarStubServer respondWith(int status, Map<String, String> headers) {
+        return respondWith(status, headers, null);
+    }
+
+    GravatarStubServer respondWith(int status, Map<String, String> headers, byte[] body) {
+        this.status = status;
+        this.responseHeaders = headers;
+        this.body = body;
+        return this;
+    }
+
+    /**
+     * @return the base URL of the server, ending with a slash like {@code Gravatar.HTTPS_URL}.
+     */
+    String url() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/avatar/";
+    }
+
+    List<Headers> requests() {
+        return requests;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,173 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+public class InFlightProbeLimiterTest {
+
+    private final List<CompletableFuture<Boolean>> started = new ArrayList<>();
+
+    private final InFlightProbeLimiter limiter = new InFlightProbeLimiter(2);
+
+    @Test
+    public void itDoesNotAcceptANonPositiveCap() {
+        assertThrows(IllegalArgumentException.class, () -> new InFlightProbeLimiter(0));
+    }
+
+    @Test
+    public void itQueuesProbesBeyondTheCap() {
+        submit();
+        submit();
+        submit();
+        assertThat(started.size(), is(2));
+        assertThat(limiter.available(), is(0));
+    }
+
+    @Test
+    public void itStartsAQueuedProbeOnceARunningOneCompletes() {
+        var first = submit();
+        submit();
+        var third = submit();
+
+        started.get(0).complete(true);
+
+        assertThat(first.join(), is(true));
+        assertThat(started.size(), is(3));
+        assertThat(third.isDone(), is(false));
+    }
+
+    @Test
+    public void itReleasesThePermitWhenAProbeFails() {
+        var probe = submit();
+        started.get(0).completeExceptionally(new RuntimeException());
+
+        assertThat(probe.isCompletedExceptionally(), is(true));
+        assertThat(limiter.available(), is(2));
+    }
+
+    @Test
+    public void itDoesNotSendACancelledQueuedProbe() {
+        submit();
+        submit();
+        var queued = submit();
+
+        queued.cancel(true);
+        started.get(0).complete(true);
+
+        assertThat(started.size(), is(2));
+        assertThat(limiter.available(), is(1));
+    }
+
+    @Test
+    public void itCancelsASentProbe() {
+        var probe = submit();
+        probe.cancel(true);
+
+        assertThat(started.get(0).isCancelled(), is(true));
+        assertThat(limiter.available(), is(2));
+    }
+
+    @Test
+    public void itStartsWaitingInteractiveProbesFirst() {
+        submit();
+        submit();
+        var background = submit(ProbePriority.BACKGROUND);
+        var interactive = submit(ProbePriority.INTERACTIVE);
+
+        started.get(0).complete(true);
+        started.get(2).complete(true);
+
+        assertThat(interactive.join(), is(true));
+        assertThat(background.isDone(), is(false));
+        assertThat(started.size(), is(4));
+    }
+
+    @Test
+    public void itStartsARaisedProbeFirstAndOnlyOnce() {
+        submit();
+        submit();
+        var other = submit(ProbePriority.BACKGROUND);
+        var raised = submit(ProbePriority.BACKGROUND);
+
+        limiter.prioritize(raised, ProbePriority.INTERACTIVE);
+        started.get(0).complete(true);
+        started.get(2).complete(true);
+
+        assertThat(raised.join(), is(true));
+        assertThat(other.isDone(), is(false));
+        started.get(1).complete(true);
+        started.get(3).complete(false);
+        assertThat(other.join(), is(false));
+        assertThat(started.size(), is(4));
+        assertThat(limiter.available(), is(2));
+    }
+
+    @Test
+    public void itDoesNotLowerThePriorityOfAProbe() {
+        submit();
+        submit();
+        var other = submit(ProbePriority.INTERACTIVE);
+        var interactive = submit(ProbePriority.INTERACTIVE);
+        var background = submit(ProbePriority.BACKGROUND);
+
+        limiter.prioritize(interactive, ProbePriority.BACKGROUND);
+        limiter.prioritize(background, ProbePriority.BACKGROUND);
+        started.get(0).complete(true);
+        started.get(1).complete(true);
+
+        assertThat(started.size(), is(4));
+        assertThat(background.isDone(), is(false));
+    }
+
+    @Test
+    public void itStartsManyProbesCompletingRightAwayWithoutRecursing() {
+        var single = new InFlightProbeLimiter(1);
+        var gate = new CompletableFuture<Boolean>();
+        single.submit(() -> gate);
+        List<CompletableFuture<Boolean>> queued = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            queued.add(single.submit(() -> CompletableFuture.completedFuture(false)));
+        }
+
+        gate.complete(true);
+
+        assertThat(queued.stream().allMatch(CompletableFuture::isDone), is(true));
+        assertThat(single.available(), is(1));
+    }
+
+    @Test
+    public void itCompletesAProbeBeforeStartingTheNextOne() {
+        var single = new InFlightProbeLimiter(1);
+        var gate = new CompletableFuture<Boolean>();
+        var first = single.submit(() -> gate);
+        var next = new CompletableFuture<Boolean>();
+        List<Boolean> firstDoneWhenNextStarted = new ArrayList<>();
+        single.submit(() -> {
+            firstDoneWhenNextStarted.add(first.isDone());
+            return next;
+        });
+
+        gate.complete(true);
+
+        assertThat(firstDoneWhenNextStarted, contains(true));
+    }
+
+    private CompletableFuture<Boolean> submit() {
+        return submit(ProbePriority.INTERACTIVE);
+    }
+
+    private CompletableFuture<Boolean> submit(ProbePriority priority) {
+        return limiter.submit(priority, () -> {
+            var probe = new CompletableFuture<Boolean>();
+            started.add(probe);
+            return probe;
+        });
+    }
+}
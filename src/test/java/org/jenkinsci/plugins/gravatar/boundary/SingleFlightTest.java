@@ -0,0 +1,97 @@
+package org.jenkinsci.plugins.gravatar.boundary;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+    private final List<CompletableFuture<Boolean>> started = new ArrayList<>();
+
+    private final SingleFlight<String, Boolean> flights = new SingleFlight<>();
+
+    @Test
+    public void itSharesAComputationBetweenCallersOfTheSameKey() {
+        var first = submit("a");
+        var second = submit("a");
+        var other = submit("b");
+
+        started.get(0).complete(true);
+
+        assertThat(started.size(), is(2));
+        assertThat(first.join(), is(true));
+        assertThat(second.join(), is(true));
+        assertThat(other.isDone(), is(false));
+    }
+
+    @Test
+    public void itComputesAgainOnceTheComputationCompleted() {
+        submit("a");
+        started.get(0).complete(true);
+        submit("a");
+
+        assertThat(started.size(), is(2));
+        assertThat(flights.inFlight(), is(1));
+    }
+
+    @Test
+    public void itSharesAFailure() {
+        var first = submit("a");
+        var second = submit("a");
+        started.get(0).completeExceptionally(new RuntimeException());
+
+        assertThat(first.isCompletedExceptionally(), is(true));
+        assertThat(second.isCompletedExceptionally(), is(true));
+        assertThat(flights.inFlight(), is(0));
+    }
+
+    @Test
+    public void itKeepsComputingWhileACallerWaits() {
+        var first = submit("a");
+        var second = submit("a");
+
+        first.cancel(true);
+
+        assertThat(started.get(0).isCancelled(), is(false));
+        started.get(0).complete(true);
+        assertThat(second.join(), is(true));
+    }
+
+    @Test
+    public void itCancelsTheComputationOnceAllCallersCancelled() {
+        var first = submit("a");
+        var second = submit("a");
+
+        first.cancel(true);
+        second.cancel(true);
+
+        assertThat(started.get(0).isCancelled(), is(true));
+        assertThat(flights.inFlight(), is(0));
+        submit("a");
+        assertThat(started.size(), is(2));
+    }
+
+    @Test
+    public void itTellsCallersJoiningAComputationAboutIt() {
+        List<CompletableFuture<Boolean>> joined = new ArrayList<>();
+        flights.submit("a", this::computation, joined::add);
+        flights.submit("a", this::computation, joined::add);
+
+        assertThat(joined, contains(started.get(0)));
+    }
+
+    private CompletableFuture<Boolean> submit(String key) {
+        return flights.submit(key, this::computation);
+    }
+
+    private CompletableFuture<Boolean> computation() {
+        var computation = new CompletableFuture<Boolean>();
+        started.add(computation);
+        return computation;
+    }
+}
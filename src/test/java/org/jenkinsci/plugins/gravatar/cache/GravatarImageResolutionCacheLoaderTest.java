@@ -0,0 +1,271 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import org.jenkinsci.plugins.gravatar.boundary.GravatarImageURLVerifier;
+import org.jenkinsci.plugins.gravatar.boundary.GravatarImageVerification;
+import org.jenkinsci.plugins.gravatar.boundary.ProbePriority;
+import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+import org.jenkinsci.plugins.gravatar.model.GravatarUser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class GravatarImageResolutionCacheLoaderTest {
+
+    private static final String HASH = "e97d631e4b7f9afaf78fc86026948745";
+
+    @Mock
+    GravatarImageURLVerifier verifier;
+
+    @Mock
+    GravatarUser user;
+
+    @Mock
+    GravatarUser alias;
+
+    @Mock
+    GravatarUser userWithoutEmail;
+
+    GravatarImageResolutionCacheLoader loader;
+
+    @BeforeEach
+    public void setUp() {
+        loader = spy(new GravatarImageResolutionCacheLoader());
+        doReturn(verifier).when(loader).verifier();
+        doReturn(true).when(loader).verifyGravatars();
+        when(user.emailAddress()).thenReturn(Optional.of("eramfelt@gmail.com"));
+        when(alias.emailAddress()).thenReturn(Optional.of(" ERamfelt@gmail.com"));
+        when(userWithoutEmail.emailAddress()).thenReturn(Optional.absent());
+        foundByVerifier();
+    }
+
+    @Test
+    public void itDoesNotAskGravatarForAUserWithoutEmail() throws Exception {
+        var resolution = loader.loadAsync(userWithoutEmail, null).get();
+        assertThat(resolution.isFound(), is(false));
+        verify(verifier, never()).verifyAsync(anyString(), any(), any());
+    }
+
+    @Test
+    public void itDoesNotAskGravatarWhenItsDefaultImageIsShown() throws Exception {
+        doReturn(false).when(loader).verifyGravatars();
+
+        var resolution = loader.loadAsync(user, null).get();
+
+        assertThat(resolution.isFound(), is(true));
+        assertThat(resolution.urlCreator().get().emailHash(), is(HASH));
+        verify(verifier, never()).verifyAsync(anyString(), any(), any());
+    }
+
+    @Test
+    public void itResolvesAFoundGravatar() throws Exception {
+        var resolution = loader.loadAsync(user, null).get();
+        assertThat(resolution.isFound(), is(true));
+        assertThat(resolution.emailHash(), is(Optional.of(HASH)));
+    }
+
+    @Test
+    public void itAsksGravatarOnlyOnceForUsersSharingAnEmailAddress() throws Exception {
+        loader.loadAsync(user, null).get();
+        var resolution = loader.loadAsync(alias, null).get();
+
+        assertThat(resolution.isFound(), is(true));
+        verify(verifier, times(1)).verifyAsync(anyString(), any(), any());
+    }
+
+    @Test
+    public void itAsksGravatarAgainOnceInvalidated() throws Exception {
+        loader.loadAsync(user, null).get();
+        loader.invalidateAll();
+        loader.loadAsync(alias, null).get();
+
+        verify(verifier, times(2)).verifyAsync(anyString(), any(), any());
+    }
+
+    @Test
+    public void itAsksGravatarAgainIfTheVerificationFailed() throws Exception {
+        when(verifier.verifyAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(GravatarImageVerification.failed()));
+        assertThrows(ExecutionException.class, () -> loader.loadAsync(user, null).get());
+        assertThrows(ExecutionException.class, () -> loader.loadAsync(alias, null).get());
+
+        verify(verifier, times(2)).verifyAsync(anyString(), any(), any());
+    }
+
+    @Test
+    public void itFailsTheFirstLoadIfGravatarCannotBeAsked() {
+        when(verifier.verifyAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(GravatarImageVerification.failed()));
+
+        var e = assertThrows(ExecutionException.class, () -> loader.loadAsync(user, null).get());
+
+        assertThat(e.getCause(), is(instanceOf(IOException.class)));
+    }
+
+    @Test
+    public void itKeepsAKnownGravatarIfItCannotBeRevalidated() throws Exception {
+        when(verifier.verifyAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(GravatarImageVerification.failed()));
+        var known = GravatarImageResolution.found(GravatarUrlCreator.ofHash(HASH), 0, "\"etag\"", null);
+
+        assertThat(loader.loadAsync(user, known).get(), is(known));
+        verify(verifier).verifyAsync(anyString(), eq(known.verification().get()), any());
+    }
+
+    @Test
+    public void itKeepsAMissIfGravatarCannotBeAsked() throws Exception {
+        when(verifier.verifyAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(GravatarImageVerification.failed()));
+        var missed = GravatarImageResolution.notFound(HASH, 0, 2);
+
+        assertThat(loader.loadAsync(user, missed).get(), is(missed));
+    }
+
+    @Test
+    public void itReplacesAKnownGravatarThatIsGone() throws Exception {
+        when(verifier.verifyAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(GravatarImageVerification.notFound()));
+        var known = GravatarImageResolution.found(GravatarUrlCreator.ofHash(HASH), 0);
+
+        assertThat(loader.loadAsync(user, known).get().isFound(), is(false));
+    }
+
+    @Test
+    public void itKeepsAtMostOnePendingLoadPerUser() throws Exception {
+        SettableFuture<GravatarImageResolution> loading = SettableFuture.create();
+        doReturn(loading).when(loader).loadAsync(any(), any(), any());
+
+        var first = loader.loadInBackground("user");
+        var second = loader.reload("user", GravatarImageResolution.notFound(HASH, 0));
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(loader.pendingLoads(), is(1));
+        verify(loader, after(200).times(1)).loadAsync(any(), any(), any());
+    }
+
+    @Test
+    public void itDoesNotLetAShownUserWaitForItsRefresh() throws Exception {
+        doAnswer(invocation -> SettableFuture.create()).when(loader).loadAsync(any(), any(), any());
+
+        var refresh = loader.reload("user", GravatarImageResolution.notFound(HASH, 0));
+        var shown = loader.loadInBackground("user");
+
+        assertThat(shown, is(not(sameInstance(refresh))));
+        assertThat(loader.loadInBackground("user"), is(sameInstance(shown)));
+        verify(loader, timeout(1000)).loadAsync(any(), isNull(), eq(ProbePriority.INTERACTIVE));
+    }
+
+    @Test
+    public void itCancelsPendingLoadsOnShutdown() {
+        SettableFuture<GravatarImageResolution> loading = SettableFuture.create();
+        doReturn(loading).when(loader).loadAsync(any(), any(), any());
+        var load = loader.loadInBackground("user");
+        verify(loader, timeout(1000)).loadAsync(any(), any(), any());
+
+        loader.shutdown();
+
+        assertThat(load.isCancelled(), is(true));
+        assertThat(loading.isCancelled(), is(true));
+        assertThat(loader.loadInBackground("other").isDone(), is(true));
+    }
+
+    @Test
+    public void itLoadsShownUsersBeforeRefreshingOthers() throws Exception {
+        loader = spy(new GravatarImageResolutionCacheLoader(1));
+        var busy = new CountDownLatch(1);
+        List<ProbePriority> loaded = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+                    loaded.add(invocation.getArgument(2));
+                    if (loaded.size() == 1) {
+                        busy.await();
+                    }
+                    return Futures.immediateFuture(GravatarImageResolution.notFound(HASH, 0));
+                })
+                .when(loader)
+                .loadAsync(any(), any(), any());
+
+        loader.loadInBackground("first");
+        verify(loader, timeout(1000)).loadAsync(any(), any(), any());
+        loader.reload("refreshed", GravatarImageResolution.notFound(HASH, 0));
+        loader.loadInBackground("shown");
+        busy.countDown();
+
+        verify(loader, timeout(1000).times(3)).loadAsync(any(), any(), any());
+        assertThat(loaded, contains(ProbePriority.INTERACTIVE, ProbePriority.INTERACTIVE, ProbePriority.BACKGROUND));
+    }
+
+    @Test
+    public void itLoadsUsersForThePeriodicLookupWithBackgroundPriority() throws Exception {
+        var notFound = GravatarImageResolution.notFound(HASH, 0);
+        doReturn(Futures.immediateFuture(notFound)).when(loader).loadAsync(any(), any(), any());
+
+        assertThat(loader.loadWithBackgroundPriority("user"), is(notFound));
+        verify(loader).loadAsync(any(), any(), eq(ProbePriority.BACKGROUND));
+    }
+
+    @Test
+    public void itLoadsManyUsersAtOnceLeavingOutTheOnesThatFail() throws Exception {
+        var notFound = GravatarImageResolution.notFound(HASH, 0);
+        doReturn(Futures.immediateFuture(notFound))
+                .doReturn(Futures.immediateFailedFuture(new IllegalStateException()))
+                .doReturn(Futures.immediateFuture(notFound))
+                .when(loader)
+                .loadAsync(any(), any());
+
+        var loaded = loader.loadAll(List.of("a", "b", "c"));
+
+        assertThat(loaded, is(Map.of("a", notFound, "c", notFound)));
+        verify(loader, times(3)).loadAsync(any(), isNull());
+    }
+
+    @Test
+    public void itCancelsTheProbeOfACancelledLoad() {
+        var probe = new CompletableFuture<GravatarImageVerification>();
+        when(verifier.verifyAsync(anyString(), any(), any())).thenReturn(probe);
+
+        loader.loadAsync(user, null).cancel(true);
+
+        assertThat(probe.isCancelled(), is(true));
+    }
+
+    private void foundByVerifier() {
+        when(verifier.verifyAsync(anyString(), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(GravatarImageVerification.found(null, null)));
+    }
+}
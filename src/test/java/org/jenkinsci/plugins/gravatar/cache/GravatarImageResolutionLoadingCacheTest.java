@@ -3,10 +3,15 @@ package org.jenkinsci.plugins.gravatar.cache;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -16,11 +21,19 @@ import static org.mockito.Mockito.when;
 import com.google.common.base.Optional;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.testing.FakeTicker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import hudson.model.Saveable;
 import hudson.model.User;
+import hudson.tasks.Mailer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
-import org.jenkinsci.plugins.gravatar.model.GravatarUser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -35,8 +48,10 @@ public class GravatarImageResolutionLoadingCacheTest {
 
     private static final String USER_ID = "userId";
 
+    private static final String HASH = "0bc83cb571cd1c50ba6f3e8a78ef1346";
+
     @Mock
-    LoadingCache<GravatarUser, Optional<GravatarUrlCreator>> innerCache;
+    LoadingCache<String, GravatarImageResolution> innerCache;
 
     @Mock
     GravatarUrlCreator cachedKnownCreator;
@@ -50,48 +65,104 @@ public class GravatarImageResolutionLoadingCacheTest {
     @Mock
     User uncachedUser;
 
+    @Mock
+    GravatarImageResolutionCacheLoader loader;
+
+    GravatarImageResolution found;
+
+    GravatarImageResolution notFound;
+
     GravatarImageResolutionLoadingCache cache;
 
     @BeforeEach
     public void setUp() throws Exception {
+        when(cachedKnownCreator.emailHash()).thenReturn(HASH);
+        found = GravatarImageResolution.found(cachedKnownCreator, System.currentTimeMillis());
+        notFound = GravatarImageResolution.notFound(HASH, System.currentTimeMillis());
         when(cachedKnownUser.getId()).thenReturn(USER_ID);
         when(cachedUnknownUser.getId()).thenReturn("EFG");
         when(uncachedUser.getId()).thenReturn("ABD");
-        cache = spy(new GravatarImageResolutionLoadingCache(innerCache));
+        cache = spy(new GravatarImageResolutionLoadingCache(innerCache, loader));
+        when(loader.loadInBackground(anyString())).thenReturn(SettableFuture.create());
 
         doReturn(new ConcurrentHashMap<>(mapOfCachedUsers())).when(innerCache).asMap();
 
-        doReturn(Optional.absent()).when(innerCache).getUnchecked(any(GravatarUser.class));
-        doReturn(Optional.absent()).when(innerCache).get(any(GravatarUser.class));
-        when(innerCache.getUnchecked(eq(GravatarUser.gravatarUser(cachedKnownUser))))
-                .thenReturn(Optional.of(cachedKnownCreator));
-        when(innerCache.get(eq(GravatarUser.gravatarUser(cachedKnownUser))))
-                .thenReturn(Optional.of(cachedKnownCreator));
+        doReturn(notFound).when(innerCache).getUnchecked(anyString());
+        doReturn(notFound).when(innerCache).get(anyString());
+        when(innerCache.getUnchecked(eq(USER_ID))).thenReturn(found);
+        when(innerCache.get(eq(USER_ID))).thenReturn(found);
+        when(innerCache.getIfPresent(eq(USER_ID))).thenReturn(found);
+        when(innerCache.getIfPresent(eq("EFG"))).thenReturn(notFound);
+        when(cachedKnownCreator.buildUrlForSize(anyInt())).thenReturn("http://my.image.com/123123123");
+        doReturn(true).when(cache).verifyGravatars();
     }
 
-    private ImmutableMap<GravatarUser, Optional<GravatarUrlCreator>> mapOfCachedUsers() {
-        var cachedGravatarUser = GravatarUser.gravatarUser(cachedKnownUser);
-        var cachedUnknownGravatarUser = GravatarUser.gravatarUser(cachedUnknownUser);
-        return ImmutableMap.of(
-                cachedGravatarUser, Optional.of(cachedKnownCreator), cachedUnknownGravatarUser, Optional.absent());
+    private ImmutableMap<String, GravatarImageResolution> mapOfCachedUsers() {
+        return ImmutableMap.of(USER_ID, found, "EFG", notFound);
     }
 
     @Test
     public void urlCreatorAlwaysAsksTheCache() throws Exception {
         cache.urlCreatorFor(cachedKnownUser);
-        verify(innerCache, times(1)).get(any(GravatarUser.class));
+        verify(innerCache, times(1)).get(anyString());
     }
 
     @Test
     public void loadIfPresentDoesNotLoadIntoCacheIfAlreadyThere() throws Exception {
         cache.loadIfUnknown(cachedKnownUser);
-        verify(innerCache, never()).get(any(GravatarUser.class));
+        verify(innerCache, never()).get(anyString());
+        verify(innerCache, never()).get(anyString(), any());
     }
 
     @Test
     public void loadIfPresentIsInvokedWhenNonCachedUserIsRequested() throws Exception {
         cache.loadIfUnknown(uncachedUser);
-        verify(innerCache, times(1)).get(eq(GravatarUser.gravatarUser(uncachedUser)));
+        verify(innerCache, times(1)).get(eq("ABD"), any());
+    }
+
+    @Test
+    public void itShouldNotLoadUsersAheadOfTimeOnceTheCacheIsFull() throws Exception {
+        doReturn(2L).when(cache).maximumSize();
+        when(innerCache.size()).thenReturn(2L);
+
+        cache.loadIfUnknown(uncachedUser);
+
+        verify(innerCache, never()).get(anyString(), any());
+    }
+
+    @Test
+    public void itShouldResolveManyUsersAtOnce() throws Exception {
+        when(innerCache.getAll(any())).thenReturn(ImmutableMap.of(USER_ID, found, "ABD", notFound));
+
+        var urlCreators = cache.urlCreatorsFor(List.of(cachedKnownUser, uncachedUser));
+
+        assertThat(urlCreators.get(cachedKnownUser), is(Optional.of(cachedKnownCreator)));
+        assertThat(urlCreators.get(uncachedUser), is(Optional.<GravatarUrlCreator>absent()));
+        verify(innerCache).getAll(Set.of(USER_ID, "ABD"));
+    }
+
+    @Test
+    public void itShouldResolveTheCachedOnesOfManyUsersIfLoadingFails() throws Exception {
+        doThrow(new ExecutionException(new RuntimeException())).when(innerCache).getAll(any());
+        when(innerCache.getAllPresent(any())).thenReturn(ImmutableMap.of(USER_ID, found));
+
+        var urlCreators = cache.urlCreatorsFor(List.of(cachedKnownUser, uncachedUser));
+
+        assertThat(urlCreators.get(cachedKnownUser), is(Optional.of(cachedKnownCreator)));
+        assertThat(urlCreators.get(uncachedUser), is(Optional.<GravatarUrlCreator>absent()));
+    }
+
+    @Test
+    public void itShouldLoadTheUncachedOnesOfManyUsersInTheBackgroundWithNonBlockingReads() throws Exception {
+        doReturn(true).when(cache).nonBlockingReads();
+        when(innerCache.getAllPresent(any())).thenReturn(ImmutableMap.of(USER_ID, found));
+
+        var urlCreators = cache.urlCreatorsFor(List.of(cachedKnownUser, uncachedUser));
+
+        assertThat(urlCreators.get(cachedKnownUser), is(Optional.of(cachedKnownCreator)));
+        assertThat(urlCreators.get(uncachedUser), is(Optional.<GravatarUrlCreator>absent()));
+        verify(innerCache, never()).getAll(any());
+        verify(loader, times(1)).loadInBackground("ABD");
     }
 
     @Test
@@ -111,13 +182,209 @@ public class GravatarImageResolutionLoadingCacheTest {
 
     @Test
     public void itShouldNotThrowExceptionIfLoadingFails() throws Exception {
-        doThrow(new ExecutionException(new RuntimeException())).when(innerCache).get(any(GravatarUser.class));
+        doThrow(new ExecutionException(new RuntimeException())).when(innerCache).get(anyString(), any());
         cache.loadIfUnknown(uncachedUser);
     }
 
     @Test
     public void itShouldReturnAnUnknownUrlCreatorIfLoadingFails() throws Exception {
-        doThrow(new ExecutionException(new RuntimeException())).when(innerCache).get(any(GravatarUser.class));
+        doThrow(new ExecutionException(new RuntimeException())).when(innerCache).get(anyString());
+        assertThat(cache.urlCreatorFor(uncachedUser), is(equalTo(Optional.<GravatarUrlCreator>absent())));
+    }
+
+    @Test
+    public void itShouldRestoreFoundAndRecentlyCheckedResolutions() {
+        var innerMap = new ConcurrentHashMap<String, GravatarImageResolution>();
+        doReturn(innerMap).when(innerCache).asMap();
+        var stale = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+
+        cache.restore(Map.of(
+                "found", GravatarImageResolution.found(cachedKnownCreator, stale),
+                "recent", notFound,
+                "stale", GravatarImageResolution.notFound(HASH, stale)));
+
+        assertThat(innerMap.keySet(), containsInAnyOrder("found", "recent"));
+    }
+
+    @Test
+    public void itShouldResolveTheAvatarUrlOfACachedKnownUser() {
+        assertThat(cache.avatarUrlFor(cachedKnownUser, 48), is("http://my.image.com/123123123"));
+        verify(innerCache, times(1)).getIfPresent(USER_ID);
+        verify(innerCache, never()).asMap();
+    }
+
+    @Test
+    public void itShouldNotResolveTheAvatarUrlOfAnUncachedUser() throws Exception {
+        assertThat(cache.avatarUrlFor(uncachedUser, 48), is(nullValue()));
+        verify(innerCache, never()).get(anyString());
+    }
+
+    @Test
+    public void itShouldNotResolveTheAvatarUrlOfAnUnknownUser() {
+        assertThat(cache.avatarUrlFor(cachedUnknownUser, 48), is(nullValue()));
+        verify(innerCache, never()).refresh(anyString());
+    }
+
+    @Test
+    public void itShouldRefreshAnUnknownUserOnceTheRefreshPeriodIsOver() throws Exception {
+        var ticker = new FakeTicker();
+        LoadingCache<String, GravatarImageResolution> refreshing =
+                GravatarImageResolutionLoadingCache.newCacheBuilder(0, 1).ticker(ticker).build(loader);
+        refreshing.put("EFG", notFound);
+        doReturn(Futures.immediateFuture(notFound)).when(loader).reload("EFG", notFound);
+        var shown = new GravatarImageResolutionLoadingCache(refreshing, loader);
+
+        shown.avatarUrlFor(cachedUnknownUser, 48);
+        verify(loader, never()).reload(anyString(), any());
+        ticker.advance(GravatarImageResolution.FIRST_BACKOFF_MILLIS + 1, TimeUnit.MILLISECONDS);
+        shown.avatarUrlFor(cachedUnknownUser, 48);
+
+        verify(loader, times(1)).reload("EFG", notFound);
+    }
+
+    @Test
+    public void itShouldResolveAnUncachedUserRightAwayWithoutVerification() throws Exception {
+        doReturn(false).when(cache).verifyGravatars();
+        when(innerCache.get(eq("ABD"))).thenReturn(found);
+
+        assertThat(cache.avatarUrlFor(uncachedUser, 48), is("http://my.image.com/123123123"));
+        verify(loader, never()).loadInBackground(anyString());
+    }
+
+    @Test
+    public void itShouldLoadAnUncachedUserInTheBackgroundOnlyOnce() {
+        cache.avatarUrlFor(uncachedUser, 48);
+        cache.avatarUrlFor(uncachedUser, 48);
+        verify(loader, times(1)).loadInBackground("ABD");
+    }
+
+    @Test
+    public void itShouldCacheWhatWasLoadedInTheBackground() {
+        var innerMap = new ConcurrentHashMap<String, GravatarImageResolution>();
+        doReturn(innerMap).when(innerCache).asMap();
+        when(loader.loadInBackground("ABD")).thenReturn(Futures.immediateFuture(notFound));
+
+        cache.avatarUrlFor(uncachedUser, 48);
+
+        assertThat(innerMap.get("ABD"), is(notFound));
+    }
+
+    @Test
+    public void itShouldNotWaitForAnUncachedUserWithNonBlockingReads() throws Exception {
+        doReturn(true).when(cache).nonBlockingReads();
         assertThat(cache.urlCreatorFor(uncachedUser), is(equalTo(Optional.<GravatarUrlCreator>absent())));
+        verify(innerCache, never()).get(anyString());
+        verify(loader, times(1)).loadInBackground("ABD");
+    }
+
+    @Test
+    public void itShouldReadACachedUserWithNonBlockingReads() throws Exception {
+        doReturn(true).when(cache).nonBlockingReads();
+        assertThat(cache.urlCreatorFor(cachedKnownUser), is(equalTo(Optional.of(cachedKnownCreator))));
+        verify(innerCache, never()).get(anyString());
+    }
+
+    @Test
+    public void itShouldEvictUsersBeyondTheMaximumSize() {
+        LoadingCache<String, GravatarImageResolution> bounded =
+                GravatarImageResolutionLoadingCache.newCacheBuilder(10, 100).build(loader);
+        for (int i = 0; i < 100; i++) {
+            bounded.put("user" + i, notFound);
+        }
+        bounded.cleanUp();
+        assertThat(bounded.size() <= 10, is(true));
+    }
+
+    @Test
+    public void itShouldKeepAllUsersWithoutAMaximumSize() {
+        LoadingCache<String, GravatarImageResolution> unbounded =
+                GravatarImageResolutionLoadingCache.newCacheBuilder(0, 100).build(loader);
+        for (int i = 0; i < 1000; i++) {
+            unbounded.put("user" + i, notFound);
+        }
+        assertThat(unbounded.size(), is(1000L));
+    }
+
+    @Test
+    public void itShouldNotMakeRoomForAnImplausibleNumberOfUsers() {
+        LoadingCache<String, GravatarImageResolution> sized =
+                GravatarImageResolutionLoadingCache.newCacheBuilder(0, Integer.MAX_VALUE).build(loader);
+        sized.put(USER_ID, found);
+        assertThat(sized.size(), is(1L));
+    }
+
+    @Test
+    public void itShouldForgetTheVerificationsOfTheLoaderWhenInvalidated() {
+        cache.invalidateAll();
+
+        verify(innerCache).invalidateAll();
+        verify(loader).invalidateAll();
+    }
+
+    @Test
+    public void itShouldKeepAUserWhoseEmailAddressDidNotChange() {
+        cache.userChanged(USER_ID, Optional.of(HASH));
+        verify(innerCache, never()).invalidate(anyString());
+    }
+
+    @Test
+    public void itShouldCheckASavedUserWithoutAGravatarAgain() {
+        cache.userChanged("EFG", Optional.of(HASH));
+        verify(loader).invalidate(HASH);
+        verify(innerCache).invalidate("EFG");
+        verify(loader).loadInBackground("EFG");
+    }
+
+    @Test
+    public void itShouldResolveAUserWhoseEmailAddressChangedAgain() {
+        cache.userChanged(USER_ID, Optional.of("e97d631e4b7f9afaf78fc86026948745"));
+        verify(innerCache).invalidate(USER_ID);
+        verify(loader).loadInBackground(USER_ID);
+    }
+
+    @Test
+    public void itShouldResolveAUserWhoseEmailAddressWasRemovedAgain() {
+        cache.userChanged(USER_ID, Optional.<String>absent());
+        verify(innerCache).invalidate(USER_ID);
+    }
+
+    @Test
+    public void itShouldNotResolveAChangedUserThatIsNotCached() {
+        cache.userChanged("ABD", Optional.of(HASH));
+        verify(innerCache, never()).invalidate(anyString());
+        verify(loader, never()).loadInBackground(anyString());
+    }
+
+    @Test
+    public void itShouldRememberUsersSavedWhileNotCachedForThePeriodicLookup() {
+        cache.userChanged("ABD", Optional.of(HASH));
+        cache.userChanged("ABE", Optional.absent());
+        cache.userChanged("ABF", Optional.absent());
+        cache.userDeleted("ABF");
+
+        assertThat(cache.drainSavedWhileUnknown(), containsInAnyOrder("ABD", "ABE"));
+        assertThat(cache.drainSavedWhileUnknown().isEmpty(), is(true));
+    }
+
+    @Test
+    public void itShouldForgetADeletedUser() {
+        cache.userDeleted(USER_ID);
+        verify(innerCache).invalidate(USER_ID);
+    }
+
+    @Test
+    public void itShouldBeToldAboutSavedAndDeletedUsers() {
+        var listener = spy(new GravatarImageResolutionLoadingCache.UserListener());
+        doReturn(cache).when(listener).cache();
+        var mail = mock(Mailer.UserProperty.class);
+        when(mail.getAddress()).thenReturn("eramfelt@gmail.com");
+        when(cachedKnownUser.getProperty(Mailer.UserProperty.class)).thenReturn(mail);
+
+        listener.onChange(cachedKnownUser, null);
+        listener.onDeleted(cachedKnownUser, null);
+        listener.onChange(mock(Saveable.class), null);
+
+        verify(cache).userChanged(USER_ID, Optional.of("e97d631e4b7f9afaf78fc86026948745"));
+        verify(cache).userDeleted(USER_ID);
     }
 }
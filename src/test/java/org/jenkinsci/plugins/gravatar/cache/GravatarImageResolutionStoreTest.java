@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.anEmptyMap;
+import static org.hamcrest.Matchers.either;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.base.Optional;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GravatarImageResolutionStoreTest {
+
+    private static final String HASH = "0bc83cb571cd1c50ba6f3e8a78ef1346";
+
+    private static final long PROBED = 1_700_000_000_000L;
+
+    @TempDir
+    File home;
+
+    GravatarImageResolutionStore store;
+
+    @BeforeEach
+    public void setUp() {
+        store = new GravatarImageResolutionStore(new File(home, "gravatar-resolutions.bin"));
+    }
+
+    @Test
+    public void itLoadsNothingIfNothingWasStored() throws Exception {
+        assertThat(store.load(), is(anEmptyMap()));
+    }
+
+    @Test
+    public void itRestoresWhatWasStored() throws Exception {
+        store.save(Map.of(
+                "found", GravatarImageResolution.found(GravatarUrlCreator.ofHash(HASH), PROBED, "\"etag\"", null),
+                "notFound", GravatarImageResolution.notFound(HASH, PROBED, 3),
+                "withoutEmail", GravatarImageResolution.withoutEmail(PROBED)));
+
+        var restored = store.load();
+
+        assertThat(restored.size(), is(3));
+        assertThat(restored.get("found").isFound(), is(true));
+        assertThat(restored.get("found").urlCreator().get().emailHash(), is(HASH));
+        assertThat(restored.get("found").probed(), is(PROBED));
+        assertThat(restored.get("found").etag(), is(Optional.of("\"etag\"")));
+        assertThat(restored.get("found").lastModified(), is(Optional.<String>absent()));
+        assertThat(restored.get("notFound").isFound(), is(false));
+        assertThat(restored.get("notFound").emailHash(), is(Optional.of(HASH)));
+        assertThat(restored.get("notFound").misses(), is(3));
+        assertThat(restored.get("withoutEmail").emailHash(), is(Optional.<String>absent()));
+    }
+
+    @Test
+    public void itTellsHowManyResolutionsAreStored() throws Exception {
+        assertThat(store.size(), is(0));
+        store.save(Map.of(
+                "notFound", GravatarImageResolution.notFound(HASH, PROBED),
+                "withoutEmail", GravatarImageResolution.withoutEmail(PROBED)));
+        assertThat(store.size(), is(2));
+    }
+
+    @Test
+    public void itDoesNotTrustTheCountOfACorruptFile() throws Exception {
+        try (var out = new DataOutputStream(new FileOutputStream(new File(home, "gravatar-resolutions.bin")))) {
+            out.writeInt(1);
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeUTF("user");
+        }
+
+        assertThat(store.size(), is(0));
+        assertThrows(IOException.class, () -> store.load());
+    }
+
+    @Test
+    public void itReplacesPreviouslyStoredResolutions() throws Exception {
+        store.save(Map.of("user", GravatarImageResolution.notFound(HASH, PROBED)));
+        store.save(Map.of());
+        assertThat(store.load(), is(anEmptyMap()));
+    }
+
+    @Test
+    public void itKeepsOneOfOverlappingSavesWhole() throws Exception {
+        var many = new HashMap<String, GravatarImageResolution>();
+        for (int i = 0; i < 10_000; i++) {
+            many.put("user" + i, GravatarImageResolution.notFound(HASH, PROBED));
+        }
+        var few = Map.of("user", GravatarImageResolution.withoutEmail(PROBED));
+        var saves = Executors.newFixedThreadPool(2);
+        try {
+            var first = saves.submit(() -> {
+                store.save(many);
+                return null;
+            });
+            var second = saves.submit(() -> {
+                store.save(few);
+                return null;
+            });
+            first.get();
+            second.get();
+        } finally {
+            saves.shutdown();
+        }
+
+        assertThat(store.load().size(), is(either(is(many.size())).or(is(few.size()))));
+        assertThat(home.list(), is(new String[] {"gravatar-resolutions.bin"}));
+    }
+}
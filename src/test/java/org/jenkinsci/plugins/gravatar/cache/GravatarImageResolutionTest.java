@@ -0,0 +1,177 @@
+package org.jenkinsci.plugins.gravatar.cache;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.concurrent.TimeUnit;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
+import org.jenkinsci.plugins.gravatar.model.GravatarUrlCreator;
+import org.junit.jupiter.api.Test;
+
+public class GravatarImageResolutionTest {
+
+    private static final String HASH = "0bc83cb571cd1c50ba6f3e8a78ef1346";
+
+    private static final String OTHER_HASH = "84059b07d4be67b806386c0aad8070a2";
+
+    private static final long PROBED = 1_700_000_000_000L;
+
+    private static final int USERS = 100_000;
+
+    private static final int SAMPLES = 5;
+
+    private static final int USERS_PER_GRAVATAR = 5;
+
+    @Test
+    public void itBacksOffExponentiallyForMisses() {
+        assertThat(backoffAfter(1), is(TimeUnit.MINUTES.toMillis(30)));
+        assertThat(backoffAfter(2), is(TimeUnit.HOURS.toMillis(2)));
+        assertThat(backoffAfter(3), is(TimeUnit.HOURS.toMillis(8)));
+    }
+
+    @Test
+    public void itChecksAgainAtLeastOnceADay() {
+        assertThat(backoffAfter(4), is(TimeUnit.DAYS.toMillis(1)));
+        assertThat(backoffAfter(200), is(TimeUnit.DAYS.toMillis(1)));
+    }
+
+    @Test
+    public void itContinuesTheBackoffOfTheSameEmailAddress() {
+        var previous = GravatarImageResolution.notFound(HASH, PROBED, 2);
+        assertThat(GravatarImageResolution.notFound(HASH, PROBED, previous).misses(), is(3));
+    }
+
+    @Test
+    public void itRestartsTheBackoffForAnotherEmailAddress() {
+        var previous = GravatarImageResolution.notFound(HASH, PROBED, 2);
+        assertThat(GravatarImageResolution.notFound(OTHER_HASH, PROBED, previous).misses(), is(1));
+    }
+
+    @Test
+    public void itRestartsTheBackoffForAFirstMiss() {
+        assertThat(GravatarImageResolution.notFound(HASH, PROBED, (GravatarImageResolution) null).misses(), is(1));
+    }
+
+    @Test
+    public void itIsDueOnlyOnceTheBackoffIsOver() {
+        var resolution = GravatarImageResolution.notFound(HASH, PROBED, 2);
+        assertThat(resolution.isDue(PROBED + TimeUnit.HOURS.toMillis(1)), is(false));
+        assertThat(resolution.isDue(PROBED + TimeUnit.HOURS.toMillis(2)), is(true));
+    }
+
+    @Test
+    public void aFoundGravatarIsRevalidatedOnceADay() {
+        var resolution = GravatarImageResolution.found(GravatarUrlCreator.ofHash(HASH), PROBED);
+        assertThat(resolution.isDue(PROBED + TimeUnit.HOURS.toMillis(23)), is(false));
+        assertThat(resolution.isDue(PROBED + TimeUnit.DAYS.toMillis(1)), is(true));
+    }
+
+    @Test
+    public void aFoundGravatarIsRevalidatedWithItsValidators() {
+        var resolution = GravatarImageResolution.found(GravatarUrlCreator.ofHash(HASH), PROBED, "\"etag\"", null);
+        var verification = resolution.verification().get();
+        assertThat(verification.exists(), is(true));
+        assertThat(verification.etag(), is(Optional.of("\"etag\"")));
+        assertThat(verification.lastModified(), is(Optional.<String>absent()));
+    }
+
+    @Test
+    public void aMissIsNotRevalidated() {
+        assertThat(GravatarImageResolution.notFound(HASH, PROBED).verification().isPresent(), is(false));
+    }
+
+    @Test
+    public void itDoesNotAcceptAMissWithoutMisses() {
+        assertThrows(IllegalArgumentException.class, () -> GravatarImageResolution.notFound(HASH, PROBED, 0));
+    }
+
+    @Test
+    public void itKeepsTheEmailHash() {
+        assertThat(GravatarImageResolution.notFound(HASH, PROBED).emailHash(), is(Optional.of(HASH)));
+        var found = GravatarImageResolution.found(GravatarUrlCreator.ofHash(HASH), PROBED);
+        assertThat(found.emailHash(), is(Optional.of(HASH)));
+        assertThat(GravatarImageResolution.withoutEmail(PROBED).emailHash(), is(Optional.<String>absent()));
+    }
+
+    @Test
+    public void itKeepsTheMissesOfAnEmailHash() {
+        var resolution = GravatarImageResolution.notFound(HASH, PROBED, 300);
+        assertThat(resolution.misses(), is(300));
+        assertThat(GravatarImageResolution.notFound(HASH, PROBED, resolution).misses(), is(301));
+        assertThat(GravatarImageResolution.notFound(OTHER_HASH, PROBED, resolution).misses(), is(1));
+    }
+
+    @Test
+    public void itTakesLittleHeapForManyUsers() {
+        // the limits assume compressed references, and the heap is measured after collecting garbage
+        assumeTrue("true".equals(vmOption("UseCompressedOops")));
+        assumeTrue("false".equals(vmOption("DisableExplicitGC")));
+        // the user ids are kept by Jenkins anyway, they are not counted
+        var userIds = new String[USERS];
+        var hashes = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            userIds[i] = "user" + i;
+            hashes[i] = EmailHash.of(userIds[i] + "@example.com");
+        }
+
+        long bytesPerUser = Long.MAX_VALUE;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            // the fewest bytes out of a few samples, as objects allocated by other threads only ever add to them
+            long before = usedHeap();
+            var cache = newCache(userIds, hashes);
+            bytesPerUser = Math.min(bytesPerUser, (usedHeap() - before) / USERS);
+            Reference.reachabilityFence(cache);
+        }
+
+        assertThat(bytesPerUser, is(lessThanOrEqualTo(192L)));
+    }
+
+    /**
+     * @return a cache of all the users, one out of {@link #USERS_PER_GRAVATAR} of them having a gravatar
+     */
+    private static LoadingCache<String, GravatarImageResolution> newCache(String[] userIds, String[] hashes) {
+        var builder = GravatarImageResolutionLoadingCache.newCacheBuilder(USERS, USERS);
+        LoadingCache<String, GravatarImageResolution> cache = builder.build(CacheLoader.from(userId -> {
+            throw new UnsupportedOperationException();
+        }));
+        for (int i = 0; i < USERS; i++) {
+            // a fresh copy of the hash, as it is when loading or restoring a user
+            var hash = String.valueOf(hashes[i].toCharArray());
+            cache.put(
+                    userIds[i],
+                    i % USERS_PER_GRAVATAR == 0
+                            ? GravatarImageResolution.found(GravatarUrlCreator.ofHash(hash), PROBED)
+                            : GravatarImageResolution.notFound(hash, PROBED));
+        }
+        return cache;
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return the value of the option, null if the JVM is not a HotSpot one.
+     */
+    private static String vmOption(String name) {
+        var hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        return hotSpot == null ? null : hotSpot.getVMOption(name).getValue();
+    }
+
+    private long backoffAfter(int misses) {
+        return GravatarImageResolution.notFound(HASH, PROBED, misses).nextProbe() - PROBED;
+    }
+}
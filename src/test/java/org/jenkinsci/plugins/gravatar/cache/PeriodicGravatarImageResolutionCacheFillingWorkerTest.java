@@ -4,13 +4,17 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.same;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.google.common.collect.Lists;
 import hudson.model.TaskListener;
 import hudson.model.User;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -44,6 +48,7 @@ public class PeriodicGravatarImageResolutionCacheFillingWorkerTest {
         }
         doReturn(users).when(loader).getAllUsers();
         doReturn(cache).when(loader).cache();
+        when(taskListener.getLogger()).thenReturn(new PrintStream(OutputStream.nullOutputStream()));
     }
 
     @Test
@@ -59,4 +64,37 @@ public class PeriodicGravatarImageResolutionCacheFillingWorkerTest {
         loader.execute(taskListener);
         verify(cache, times(users.size())).loadIfUnknown(any(User.class));
     }
+
+    @Test
+    public void itShouldForceLoadOfAllUsersOneAfterAnother() throws Exception {
+        doReturn(1).when(loader).concurrency();
+        loader.execute(taskListener);
+        verify(cache, times(users.size())).loadIfUnknown(any(User.class));
+    }
+
+    @Test
+    public void itShouldOnlyLoadChangedUsersUntilTheNextFullSweepIsDue() throws Exception {
+        var changed = mock(User.class);
+        doReturn(List.of(changed)).when(loader).getChangedUsers();
+        doReturn(1_000L).when(loader).fullSweepMillis();
+        doReturn(0L).when(loader).now();
+        loader.execute(taskListener);
+
+        doReturn(999L).when(loader).now();
+        loader.execute(taskListener);
+        verify(cache).loadIfUnknown(same(changed));
+        verify(loader, times(1)).getAllUsers();
+
+        doReturn(1_000L).when(loader).now();
+        loader.execute(taskListener);
+        verify(loader, times(2)).getAllUsers();
+        verify(cache, times(2 * users.size() + 1)).loadIfUnknown(any(User.class));
+    }
+
+    @Test
+    public void itShouldKeepGoingIfLoadingAUserFails() throws Exception {
+        doThrow(new RuntimeException()).when(cache).loadIfUnknown(same(users.get(0)));
+        loader.execute(taskListener);
+        verify(cache, times(users.size())).loadIfUnknown(any(User.class));
+    }
 }
@@ -0,0 +1,64 @@
+package org.jenkinsci.plugins.gravatar.factory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import de.bripkens.gravatar.Gravatar;
+import org.jenkinsci.plugins.gravatar.model.EmailHash;
+import org.junit.jupiter.api.Test;
+
+public class GravatarFactoryTest {
+
+    private static final String HASH = "0bc83cb571cd1c50ba6f3e8a78ef1346";
+
+    private static final String MIRROR = "http://avatars.example.com/avatar/";
+
+    @Test
+    public void itUsesThePublicGravatarByDefault() {
+        var factory = new GravatarFactory();
+        assertThat(factory.baseUrl(), is(Gravatar.HTTPS_URL));
+        assertThat(factory.rebase(Gravatar.HTTPS_URL + HASH), is(Gravatar.HTTPS_URL + HASH));
+    }
+
+    @Test
+    public void itPointsGravatarUrlsToTheConfiguredBaseUrl() {
+        var factory = spy(new GravatarFactory());
+        doReturn(MIRROR).when(factory).baseUrl();
+
+        assertThat(factory.rebase(Gravatar.HTTPS_URL + HASH + "?d=404"), is(MIRROR + HASH + "?d=404"));
+        assertThat(factory.rebase(Gravatar.URL + HASH), is(MIRROR + HASH));
+        assertThat(factory.userImageUrl(HASH, 48), is(MIRROR + HASH + "?s=48&d=mm"));
+    }
+
+    @Test
+    public void itBuildsTheSameUserImageUrlAsGravatar() {
+        var factory = new GravatarFactory();
+        for (var email : new String[] {"eramfelt@gmail.com", " ERamfelt@gmail.com", "user@example.com"}) {
+            for (int size : new int[] {16, 24, 32, 48, 256}) {
+                assertThat(
+                        factory.userImageUrl(EmailHash.of(email), size),
+                        is(factory.userGravatar().setSize(size).getUrl(email)));
+            }
+        }
+    }
+
+    @Test
+    public void itBuildsTheSameUserImageUrlAsGravatarForTheConfiguredBaseUrl() {
+        var factory = spy(new GravatarFactory());
+        doReturn(MIRROR).when(factory).baseUrl();
+
+        assertThat(
+                factory.userImageUrl(EmailHash.of("eramfelt@gmail.com"), 48),
+                is(factory.rebase(factory.userGravatar().setSize(48).getUrl("eramfelt@gmail.com"))));
+    }
+
+    @Test
+    public void itLeavesOtherUrlsAlone() {
+        var factory = spy(new GravatarFactory());
+        doReturn(MIRROR).when(factory).baseUrl();
+
+        assertThat(factory.rebase("http://localhost/avatar/" + HASH), is("http://localhost/avatar/" + HASH));
+    }
+}
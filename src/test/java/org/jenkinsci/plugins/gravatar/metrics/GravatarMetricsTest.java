@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.gravatar.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.junit.jupiter.api.Test;
+
+public class GravatarMetricsTest {
+
+    private final GravatarMetrics metrics = new GravatarMetrics();
+
+    @Test
+    public void itCountsProbesByOutcome() {
+        metrics.probed(true, false, 1_000_000);
+        metrics.probed(false, false, 1_000_000);
+        metrics.probed(false, false, 1_000_000);
+        metrics.probed(true, true, 1_000_000);
+
+        assertThat(metrics.getProbeFoundCount(), is(1L));
+        assertThat(metrics.getProbeNotFoundCount(), is(2L));
+        assertThat(metrics.getProbeFailureCount(), is(1L));
+        assertThat(metrics.getProbeLatency().getCount(), is(4L));
+    }
+
+    @Test
+    public void itReportsTheStatisticsOfTheWatchedCache() {
+        Cache<String, String> cache = CacheBuilder.newBuilder().recordStats().build();
+        metrics.watch(cache);
+        cache.put("user", "resolution");
+        cache.getIfPresent("user");
+        cache.getIfPresent("unknown");
+
+        assertThat(metrics.getCacheSize(), is(1L));
+        assertThat(metrics.getCacheHitCount(), is(1L));
+        assertThat(metrics.getCacheMissCount(), is(1L));
+        assertThat(metrics.getCacheHitRate(), is(0.5));
+    }
+
+    @Test
+    public void itKeepsTheLastSweep() {
+        metrics.swept(10, 100);
+        metrics.swept(20, 200);
+
+        assertThat(metrics.getSweepCount(), is(2L));
+        assertThat(metrics.getLastSweepUsers(), is(20));
+        assertThat(metrics.getLastSweepMillis(), is(200L));
+    }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.gravatar.metrics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void itIsEmptyAtFirst() {
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMeanMillis(), is(0.0));
+        assertThat(histogram.getBuckets().get("<= 10 ms"), is(0L));
+    }
+
+    @Test
+    public void itCountsLatenciesInTheirBuckets() {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(300));
+        histogram.record(TimeUnit.SECONDS.toNanos(30));
+
+        assertThat(histogram.getCount(), is(4L));
+        assertThat(histogram.getBuckets().get("<= 10 ms"), is(2L));
+        assertThat(histogram.getBuckets().get("<= 500 ms"), is(1L));
+        assertThat(histogram.getBuckets().get("> 10000 ms"), is(1L));
+    }
+
+    @Test
+    public void itKeepsTheMeanAndTheMaximum() {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(100));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(300));
+
+        assertThat(histogram.getMeanMillis(), is(closeTo(200.0, 0.001)));
+        assertThat(histogram.getMaxMillis(), is(closeTo(300.0, 0.001)));
+    }
+}
@@ -5,9 +5,14 @@ import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Optional;
@@ -32,8 +37,7 @@ public class GravatarUrlCreatorTest {
     @BeforeEach
     public void setUp() {
         when(user.emailAddress()).thenReturn(Optional.of("eramfelt@gmail.com"));
-        creator = spy(GravatarUrlCreator.of(user));
-        doReturn(new GravatarFactory().testGravatar()).when(creator).gravatar();
+        creator = GravatarUrlCreator.of(user);
     }
 
     @Test
@@ -65,6 +69,48 @@ public class GravatarUrlCreatorTest {
         assertThat(url, containsString("gravatar.com"));
     }
 
+    @Test
+    public void itHashesTheNormalizedEmailAddress() {
+        when(user.emailAddress()).thenReturn(Optional.of(" ERamfelt@gmail.com "));
+        assertThat(GravatarUrlCreator.of(user).emailHash(), is(creator().emailHash()));
+    }
+
+    @Test
+    public void itBuildsTheSameUrlFromARestoredHash() {
+        var restored = GravatarUrlCreator.ofHash(creator().emailHash());
+        assertThat(restored.buildUrlForSize(48), is(creator().buildUrlForSize(48)));
+    }
+
+    @Test
+    public void itKeepsTheHashOfTheEmailAddress() {
+        assertThat(creator().emailHash(), is(EmailHash.of("eramfelt@gmail.com")));
+    }
+
+    @Test
+    public void itDoesNotAcceptSomethingElseThanAnEmailHash() {
+        assertThrows(IllegalArgumentException.class, () -> GravatarUrlCreator.ofHash("eramfelt@gmail.com"));
+    }
+
+    @Test
+    public void itBuildsTheUrlForASizeOnlyOnce() {
+        var factory = spy(new GravatarFactory());
+        var creator = spy(GravatarUrlCreator.of(user));
+        doReturn(factory).when(creator).factory();
+
+        var url = creator.buildUrlForSize(48);
+
+        assertThat(creator.buildUrlForSize(48), is(sameInstance(url)));
+        verify(factory, times(1)).userImageUrl(anyString(), eq(48));
+    }
+
+    @Test
+    public void itBuildsDifferentUrlsForDifferentSizes() {
+        for (int size = 1; size <= 32; size++) {
+            assertThat(creator().buildUrlForSize(size), containsString("s=" + size + "&"));
+        }
+        assertThat(creator().buildUrlForSize(16), is(not(creator().buildUrlForSize(24))));
+    }
+
     private GravatarUrlCreator creator() {
         return this.creator;
     }